@@ -0,0 +1,126 @@
+package se.krite.springmock.benchmark;
+
+import org.springframework.context.ConfigurableApplicationContext;
+import se.krite.springmock.context.MockAliasRegistry;
+import se.krite.springmock.context.MockPlan;
+import se.krite.springmock.context.TestContextLoader;
+import se.krite.springmock.context.index.MockResourceIndex;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.util.*;
+
+/**
+ * Builds the contexts used by the benchmarks. A context holds a number of beans ("bean0", "bean1", ...) where
+ * the first beans each have a mock ("bean0Mock", ...), declared by one test method of a synthetic test class.
+ * Contexts are loaded through TestContextLoader, with the mock configuration registered from a generated index
+ * instead of scanning annotated test classes.
+ *
+ * @author kristoffer.teuber
+ */
+public class BenchmarkContexts {
+
+	public static final String TEST_CLASS_NAME = BenchmarkContexts.class.getName() + "Test";
+	public static final String TEST_METHOD_NAME = "mockedTestMethod";
+
+	public static String getBeanName(int i) {
+		return "bean" + i;
+	}
+
+	public static String getMockBeanName(int i) {
+		return "bean" + i + "Mock";
+	}
+
+	/**
+	 * The method used as key of the method level overrides in the generated mock plans
+	 */
+	public static Method getTestMethod() {
+		try {
+			return BenchmarkContexts.class.getMethod(TEST_METHOD_NAME);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public static void mockedTestMethod() {
+	}
+
+	/**
+	 * Writes a context file with the given number of beans, and a mock bean for the first beans
+	 */
+	public static File writeContextFile(int beans, int mocks) throws IOException {
+		File file = File.createTempFile("spring-mock-benchmark-", ".xml");
+		file.deleteOnExit();
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+			writer.write("<beans xmlns=\"http://www.springframework.org/schema/beans\"" +
+					" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"" +
+					" xsi:schemaLocation=\"http://www.springframework.org/schema/beans" +
+					" http://www.springframework.org/schema/beans/spring-beans-3.0.xsd\">\n");
+			for (int i = 0; i < beans; i++) {
+				writer.write("\t<bean id=\"" + getBeanName(i) + "\" class=\"" +
+						BenchmarkServiceImpl.class.getName() + "\"/>\n");
+				if (i < mocks) {
+					writer.write("\t<bean id=\"" + getMockBeanName(i) + "\" class=\"" +
+							BenchmarkServiceMock.class.getName() + "\"/>\n");
+				}
+			}
+			writer.write("</beans>\n");
+		} finally {
+			writer.close();
+		}
+		return file;
+	}
+
+	public static MockResourceIndex createIndex(int mocks) {
+		MockResourceIndex index = new MockResourceIndex();
+		for (int i = 0; i < mocks; i++) {
+			index.add(new MockResourceIndex.Entry(getBeanName(i), getMockBeanName(i), false,
+					TEST_CLASS_NAME, TEST_METHOD_NAME));
+		}
+		return index;
+	}
+
+	/**
+	 * Creates the plan of the synthetic test class, where the test method mocks the first beans
+	 */
+	public static MockPlan createPlan(int mocks) {
+		List<MockPlan.MockOverride> overrides = new ArrayList<MockPlan.MockOverride>();
+		for (int i = 0; i < mocks; i++) {
+			overrides.add(new MockPlan.MockOverride(getBeanName(i), getMockBeanName(i)));
+		}
+		Map<Method, List<MockPlan.MockOverride>> methodOverrides = new HashMap<Method, List<MockPlan.MockOverride>>();
+		methodOverrides.put(getTestMethod(), overrides);
+		return new MockPlan(TEST_CLASS_NAME, Collections.<MockPlan.MockOverride>emptyList(), methodOverrides);
+	}
+
+	public static ConfigurableApplicationContext createContext(File contextFile, int mocks) throws Exception {
+		return new BenchmarkContextLoader(createIndex(mocks)).createContext("file:" + contextFile.getAbsolutePath());
+	}
+
+	public static MockAliasRegistry getRegistry(ConfigurableApplicationContext context) {
+		return MockAliasRegistry.getRegistry(context);
+	}
+
+	/**
+	 * Loads contexts registering the aliases of a generated index
+	 */
+	private static class BenchmarkContextLoader extends TestContextLoader {
+		private final MockResourceIndex index;
+
+		private BenchmarkContextLoader(MockResourceIndex index) {
+			this.index = index;
+		}
+
+		@Override
+		protected void registerAliases(MockAliasRegistry registry) {
+			registry.registerAll(this.index);
+		}
+
+		@Override
+		protected ConfigurableApplicationContext createContext(String... locations) throws Exception {
+			return super.createContext(locations);
+		}
+	}
+}
@@ -0,0 +1,11 @@
+package se.krite.springmock.benchmark;
+
+/**
+ * Service interface of the generated benchmark beans
+ *
+ * @author kristoffer.teuber
+ */
+public interface BenchmarkService {
+
+	String call(String argument);
+}
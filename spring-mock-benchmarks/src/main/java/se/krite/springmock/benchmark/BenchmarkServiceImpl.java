@@ -0,0 +1,13 @@
+package se.krite.springmock.benchmark;
+
+/**
+ * The original implementation of the generated benchmark beans
+ *
+ * @author kristoffer.teuber
+ */
+public class BenchmarkServiceImpl implements BenchmarkService {
+
+	public String call(String argument) {
+		return argument;
+	}
+}
@@ -0,0 +1,13 @@
+package se.krite.springmock.benchmark;
+
+/**
+ * The mock implementation of the generated benchmark beans
+ *
+ * @author kristoffer.teuber
+ */
+public class BenchmarkServiceMock implements BenchmarkService {
+
+	public String call(String argument) {
+		return null;
+	}
+}
@@ -0,0 +1,48 @@
+package se.krite.springmock.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the startup cost of a test context built by TestContextLoader: reading the definitions,
+ * aliasing the mockable beans, creating the proxies and refreshing the context.
+ * Spring's test context cache is not involved, every invocation builds and closes a new context.
+ *
+ * @author kristoffer.teuber
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ContextStartupBenchmark {
+
+	@Param({"10", "100", "1000"})
+	public int beans;
+
+	@Param({"0", "10", "100"})
+	public int mocks;
+
+	private File contextFile;
+	private int mockCount;
+
+	@Setup(Level.Trial)
+	public void writeContextFile() throws Exception {
+		this.mockCount = Math.min(this.mocks, this.beans);
+		this.contextFile = BenchmarkContexts.writeContextFile(this.beans, this.mockCount);
+	}
+
+	@Benchmark
+	public int loadContext() throws Exception {
+		ConfigurableApplicationContext context = BenchmarkContexts.createContext(this.contextFile, this.mockCount);
+		try {
+			return context.getBeanDefinitionCount();
+		} finally {
+			context.close();
+		}
+	}
+}
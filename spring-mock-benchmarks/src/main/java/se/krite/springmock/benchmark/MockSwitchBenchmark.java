@@ -0,0 +1,98 @@
+package se.krite.springmock.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import se.krite.springmock.context.MockAliasRegistry;
+import se.krite.springmock.context.MockPlan;
+import se.krite.springmock.context.MockingClassLoader;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per test cost of switching mocks: applying the overrides of a test method
+ * (MockingClassLoader.modifyMockingProxies) and resetting all proxies after the test
+ * (MockingClassLoader.resetAllProxiesToDefaultValues, which delegates to MockAliasRegistry.resetToDefaults).
+ *
+ * @author kristoffer.teuber
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MockSwitchBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class ContextState {
+		@Param({"10", "100", "1000"})
+		public int beans;
+
+		@Param({"0", "1", "10", "100"})
+		public int mocks;
+
+		ConfigurableApplicationContext context;
+		MockAliasRegistry registry;
+		MockPlan plan;
+		Method method;
+
+		@Setup(Level.Trial)
+		public void createContext() throws Exception {
+			int mockCount = Math.min(this.mocks, this.beans);
+			File contextFile = BenchmarkContexts.writeContextFile(this.beans, mockCount);
+			this.context = BenchmarkContexts.createContext(contextFile, mockCount);
+			this.registry = BenchmarkContexts.getRegistry(this.context);
+			this.plan = BenchmarkContexts.createPlan(mockCount);
+			this.method = BenchmarkContexts.getTestMethod();
+		}
+
+		@TearDown(Level.Trial)
+		public void closeContext() {
+			this.context.close();
+		}
+
+		void modify() {
+			MockingClassLoader.modifyMockingProxies(this.registry, this.plan, this.method);
+		}
+
+		int reset() {
+			return this.registry.resetToDefaults(BenchmarkContexts.TEST_CLASS_NAME);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class ModifyState extends ContextState {
+		@TearDown(Level.Invocation)
+		public void resetAfterInvocation() {
+			this.reset();
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class ResetState extends ContextState {
+		@Setup(Level.Invocation)
+		public void modifyBeforeInvocation() {
+			this.modify();
+		}
+	}
+
+	@Benchmark
+	public void modifyMockingProxies(ModifyState state) {
+		state.modify();
+	}
+
+	@Benchmark
+	public int resetAllProxiesToDefaultValues(ResetState state) {
+		return state.reset();
+	}
+
+	/**
+	 * The cost of one test method as seen by MockResourceTestExecutionListener
+	 */
+	@Benchmark
+	public int modifyAndReset(ContextState state) {
+		state.modify();
+		return state.reset();
+	}
+}
@@ -0,0 +1,75 @@
+package se.krite.springmock.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import se.krite.springmock.context.MockAliasRegistry;
+import se.krite.springmock.context.MockingAliasingCglibSubclassingInstantiationStrategy;
+import se.krite.springmock.context.MockingClassLoader;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the invocation overhead of a mockable bean, called through the proxy built by
+ * MockingAliasingCglibSubclassingInstantiationStrategy.createProxy, compared with calling the
+ * current implementation directly. The directDispatch parameter selects the proxy mode, see
+ * MockingAliasingCglibSubclassingInstantiationStrategy.DIRECT_DISPATCH_PROPERTY.
+ *
+ * @author kristoffer.teuber
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProxyInvocationBenchmark {
+
+	@Param({"10", "1000"})
+	public int beans;
+
+	// With 0 mocks the proxy routes to the original implementation, otherwise to the mock
+	@Param({"0", "1", "10"})
+	public int mocks;
+
+	@Param({"false", "true"})
+	public boolean directDispatch;
+
+	private ConfigurableApplicationContext context;
+	private BenchmarkService proxy;
+	private BenchmarkService direct;
+	private String argument = "argument";
+
+	@Setup(Level.Trial)
+	public void createContext() throws Exception {
+		// Always keep the first bean mockable, so that it is proxied
+		int mockCount = Math.max(1, Math.min(this.mocks, this.beans));
+		File contextFile = BenchmarkContexts.writeContextFile(this.beans, mockCount);
+		System.setProperty(MockingAliasingCglibSubclassingInstantiationStrategy.DIRECT_DISPATCH_PROPERTY,
+				String.valueOf(this.directDispatch));
+		this.context = BenchmarkContexts.createContext(contextFile, mockCount);
+		String targetBeanName = MockAliasRegistry.getActualBeanName(BenchmarkContexts.getBeanName(0));
+		if (this.mocks > 0) {
+			MockingClassLoader.modifyMockingProxies(BenchmarkContexts.getRegistry(this.context),
+					BenchmarkContexts.createPlan(mockCount), BenchmarkContexts.getTestMethod());
+			targetBeanName = BenchmarkContexts.getMockBeanName(0);
+		}
+		this.proxy = (BenchmarkService) this.context.getBean(BenchmarkContexts.getBeanName(0));
+		this.direct = (BenchmarkService) this.context.getBean(targetBeanName);
+	}
+
+	@TearDown(Level.Trial)
+	public void closeContext() {
+		this.context.close();
+	}
+
+	@Benchmark
+	public String direct() {
+		return this.direct.call(this.argument);
+	}
+
+	@Benchmark
+	public String proxy() {
+		return this.proxy.call(this.argument);
+	}
+}
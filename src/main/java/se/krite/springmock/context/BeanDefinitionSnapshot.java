@@ -0,0 +1,253 @@
+package se.krite.springmock.context;
+
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.converters.Converter;
+import com.thoughtworks.xstream.converters.MarshallingContext;
+import com.thoughtworks.xstream.converters.UnmarshallingContext;
+import com.thoughtworks.xstream.converters.reflection.Sun14ReflectionProvider;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+import com.thoughtworks.xstream.io.binary.BinaryStreamReader;
+import com.thoughtworks.xstream.io.binary.BinaryStreamWriter;
+import com.thoughtworks.xstream.io.xml.DomDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.support.*;
+import org.springframework.core.io.DescriptiveResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.UrlResource;
+import se.krite.springmock.context.index.MockResourceIndex;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * A binary cache of the bean definitions read from the XML files of a test context, so that forked JVMs
+ * do not have to parse the same XML again. One snapshot is kept per set of locations and registered mock
+ * configuration, under target/springmock-snapshots.
+ * <p/>
+ * A snapshot records every XML file that was read (including imports) and a hash of their contents, and is
+ * only used while the hash matches. The definitions are stored as read from the XML, the original
+ * implementation definitions (bean name + "_actual") and placeholders are still applied by the bean factory
+ * post processors on every refresh. Contexts holding definitions of other types than the generic, root and
+ * child bean definitions (for example from component scanning) are not cached.
+ *
+ * @author kristoffer.teuber
+ */
+public class BeanDefinitionSnapshot {
+
+	// Set this system property to true to cache the bean definitions of test contexts
+	public static final String SNAPSHOT_PROPERTY = "springmock.snapshot";
+	// Directory to keep the snapshots in
+	public static final String SNAPSHOT_DIR_PROPERTY = "springmock.snapshot.dir";
+	public static final String DEFAULT_SNAPSHOT_DIR = "target/springmock-snapshots";
+
+	private static final Logger log = LoggerFactory.getLogger(BeanDefinitionSnapshot.class);
+	private static final int MAGIC = 0x534d4244;
+	private static final int VERSION = 1;
+	private static final Set<Class<?>> SUPPORTED_DEFINITION_TYPES = new HashSet<Class<?>>(Arrays.<Class<?>>asList(
+			GenericBeanDefinition.class, RootBeanDefinition.class, ChildBeanDefinition.class));
+
+	private final File file;
+	private final XStream xstream;
+
+	public BeanDefinitionSnapshot(File file, ClassLoader classLoader) {
+		this.file = file;
+		// Bean definitions and their values do not all have default constructors
+		this.xstream = new XStream(new Sun14ReflectionProvider(), new DomDriver());
+		this.xstream.setClassLoader(classLoader);
+		this.xstream.registerConverter(new ResourceDescriptionConverter());
+	}
+
+	/**
+	 * @return the snapshot of the given locations and mock configuration, or null if snapshots are disabled
+	 */
+	public static BeanDefinitionSnapshot createIfEnabled(String[] locations, MockResourceIndex index,
+														 ClassLoader classLoader) {
+		if (!Boolean.getBoolean(SNAPSHOT_PROPERTY)) {
+			return null;
+		}
+		try {
+			StringWriter key = new StringWriter();
+			key.write(Arrays.toString(locations));
+			index.write(key);
+			File dir = new File(System.getProperty(SNAPSHOT_DIR_PROPERTY, DEFAULT_SNAPSHOT_DIR));
+			return new BeanDefinitionSnapshot(new File(dir, toHex(digest(key.toString().getBytes("UTF-8"))) +
+					".snapshot"), classLoader);
+		} catch (Throwable t) {
+			// XStream may not be able to initialize on this JVM
+			log.warn("Could not create bean definition snapshot, snapshots are not used", t);
+			return null;
+		}
+	}
+
+	/**
+	 * Registers the cached bean definitions in a registry
+	 *
+	 * @return false if there is no snapshot, or it is out of date, and the XML has to be read
+	 */
+	public boolean restore(BeanDefinitionRegistry registry) {
+		if (!this.file.isFile()) {
+			return false;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)));
+			try {
+				if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+					log.debug("Ignoring bean definition snapshot of another version: " + this.file);
+					return false;
+				}
+				String hash = in.readUTF();
+				List<String> resourceUrls = new ArrayList<String>();
+				for (int i = in.readInt(); i > 0; i--) {
+					resourceUrls.add(in.readUTF());
+				}
+				if (!hash.equals(hashResources(resourceUrls))) {
+					log.debug("Bean definition snapshot is out of date: " + this.file);
+					return false;
+				}
+				Definitions definitions = (Definitions) this.xstream.unmarshal(new BinaryStreamReader(in));
+				for (Map.Entry<String, BeanDefinition> entry : definitions.beanDefinitions.entrySet()) {
+					registry.registerBeanDefinition(entry.getKey(), entry.getValue());
+				}
+				for (Map.Entry<String, String> entry : definitions.aliases.entrySet()) {
+					registry.registerAlias(entry.getValue(), entry.getKey());
+				}
+				log.debug("Restored " + definitions.beanDefinitions.size() + " bean definitions from snapshot: " +
+						this.file);
+				return true;
+			} finally {
+				in.close();
+			}
+		} catch (Exception e) {
+			log.warn("Could not read bean definition snapshot, reading the XML instead: " + this.file, e);
+			return false;
+		}
+	}
+
+	/**
+	 * Writes the bean definitions of a registry, read from the given resources
+	 */
+	public void save(DefaultListableBeanFactory factory, Collection<Resource> resources) {
+		Definitions definitions = new Definitions();
+		for (String beanName : factory.getBeanDefinitionNames()) {
+			BeanDefinition beanDefinition = factory.getBeanDefinition(beanName);
+			if (!SUPPORTED_DEFINITION_TYPES.contains(beanDefinition.getClass())) {
+				log.debug("Not caching bean definitions, bean " + beanName + " has an unsupported definition: " +
+						beanDefinition.getClass().getName());
+				return;
+			}
+			definitions.beanDefinitions.put(beanName, beanDefinition);
+			for (String alias : factory.getAliases(beanName)) {
+				definitions.aliases.put(alias, beanName);
+			}
+		}
+		try {
+			List<String> resourceUrls = new ArrayList<String>();
+			for (Resource resource : resources) {
+				resourceUrls.add(resource.getURL().toExternalForm());
+			}
+			File dir = this.file.getAbsoluteFile().getParentFile();
+			if (!dir.isDirectory() && !dir.mkdirs()) {
+				throw new IOException("Could not create directory " + dir);
+			}
+			// Written to a temporary file first, since other forks may read the snapshot at the same time
+			File tempFile = File.createTempFile(this.file.getName(), ".tmp", dir);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(hashResources(resourceUrls));
+				out.writeInt(resourceUrls.size());
+				for (String resourceUrl : resourceUrls) {
+					out.writeUTF(resourceUrl);
+				}
+				BinaryStreamWriter writer = new BinaryStreamWriter(out);
+				this.xstream.marshal(definitions, writer);
+				writer.flush();
+			} finally {
+				out.close();
+			}
+			if (!tempFile.renameTo(this.file)) {
+				this.file.delete();
+				if (!tempFile.renameTo(this.file)) {
+					tempFile.delete();
+					throw new IOException("Could not move snapshot to " + this.file);
+				}
+			}
+			log.debug("Wrote " + definitions.beanDefinitions.size() + " bean definitions to snapshot: " + this.file);
+		} catch (Exception e) {
+			log.warn("Could not write bean definition snapshot: " + this.file, e);
+		}
+	}
+
+	public File getFile() {
+		return this.file;
+	}
+
+	private static String hashResources(List<String> resourceUrls) throws IOException {
+		MessageDigest digest = createDigest();
+		byte[] buffer = new byte[8192];
+		for (String resourceUrl : resourceUrls) {
+			digest.update(resourceUrl.getBytes("UTF-8"));
+			InputStream in = new UrlResource(resourceUrl).getInputStream();
+			try {
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					digest.update(buffer, 0, read);
+				}
+			} finally {
+				in.close();
+			}
+		}
+		return toHex(digest.digest());
+	}
+
+	private static byte[] digest(byte[] bytes) {
+		return createDigest().digest(bytes);
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * The content of a snapshot
+	 */
+	private static class Definitions {
+		private final Map<String, BeanDefinition> beanDefinitions = new LinkedHashMap<String, BeanDefinition>();
+		private final Map<String, String> aliases = new LinkedHashMap<String, String>();
+	}
+
+	/**
+	 * Resources of bean definitions are only used in error messages, and are stored as their description
+	 */
+	private static class ResourceDescriptionConverter implements Converter {
+		public boolean canConvert(Class type) {
+			return Resource.class.isAssignableFrom(type);
+		}
+
+		public void marshal(Object source, HierarchicalStreamWriter writer, MarshallingContext context) {
+			writer.setValue(((Resource) source).getDescription());
+		}
+
+		public Object unmarshal(HierarchicalStreamReader reader, UnmarshallingContext context) {
+			return new DescriptiveResource(reader.getValue());
+		}
+	}
+}
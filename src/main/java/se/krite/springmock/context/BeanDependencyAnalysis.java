@@ -0,0 +1,272 @@
+package se.krite.springmock.context;
+
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.PropertyValue;
+import org.springframework.beans.factory.FactoryBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.*;
+import org.springframework.beans.factory.support.*;
+import org.springframework.util.ClassUtils;
+
+import javax.annotation.Resource;
+import java.beans.PropertyDescriptor;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+/**
+ * Finds the dependencies of the bean definitions of a bean factory, as used by {@link SharedParentContext} and
+ * {@link ParallelTestContextLoader}. Dependencies are the bean references of the definition and the @Resource,
+ * @Autowired and @Inject injection points of the bean class, where injection by type depends on every bean
+ * that may be of that type. The dependencies of beans that autowire by name or type from XML are not known.
+ * Beans looking up other beans by name at runtime cannot be seen in the definitions.
+ *
+ * @author kristoffer.teuber
+ */
+public class BeanDependencyAnalysis {
+
+	private static final String INJECT_ANNOTATION_NAME = "javax.inject.Inject";
+
+	private final DefaultListableBeanFactory factory;
+	private final ClassLoader classLoader;
+	// Types of the beans that can be injected by type, null for beans of unknown type
+	private final Map<String, Class<?>> beanTypes = new LinkedHashMap<String, Class<?>>();
+
+	public BeanDependencyAnalysis(DefaultListableBeanFactory factory, ClassLoader classLoader) {
+		this.factory = factory;
+		this.classLoader = classLoader;
+		for (String beanName : factory.getBeanDefinitionNames()) {
+			BeanDefinition beanDefinition = factory.getMergedBeanDefinition(beanName);
+			if (beanDefinition.isAbstract()) {
+				continue;
+			}
+			Class<?> beanClass = beanDefinition.getFactoryMethodName() == null ?
+					loadBeanClass(beanDefinition, classLoader) : null;
+			// The products of factory beans are not known before they are created
+			if (beanClass != null && FactoryBean.class.isAssignableFrom(beanClass)) {
+				beanClass = null;
+			}
+			this.beanTypes.put(beanName, beanClass);
+		}
+	}
+
+	/**
+	 * @return the beans, other than the excluded beans, that do not depend on the excluded beans or on beans
+	 *         with unknown dependencies, directly or through other beans
+	 */
+	public Set<String> findBeansNotDependingOn(Set<String> excludedBeanNames) {
+		Map<String, Set<String>> dependencies = new HashMap<String, Set<String>>();
+		Set<String> shared = new LinkedHashSet<String>();
+		for (String beanName : this.factory.getBeanDefinitionNames()) {
+			Set<String> beanDependencies = this.findDependencies(beanName);
+			if (beanDependencies != null && !excludedBeanNames.contains(beanName)) {
+				dependencies.put(beanName, beanDependencies);
+				shared.add(beanName);
+			}
+		}
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (Iterator<String> i = shared.iterator(); i.hasNext(); ) {
+				String beanName = i.next();
+				for (String dependency : dependencies.get(beanName)) {
+					if (!shared.contains(dependency)) {
+						i.remove();
+						changed = true;
+						break;
+					}
+				}
+			}
+		}
+		return shared;
+	}
+
+	/**
+	 * @return the canonical names of the beans a bean depends on, or null if they cannot be determined
+	 */
+	public Set<String> findDependencies(String beanName) {
+		BeanDefinition beanDefinition = this.factory.getBeanDefinition(beanName);
+		Set<String> names = new HashSet<String>();
+		if (!this.collectDefinitionDependencies(beanDefinition, names)) {
+			return null;
+		}
+		Set<String> dependencies = new HashSet<String>();
+		for (String name : names) {
+			String canonicalName = this.factory.canonicalName(name);
+			if (!this.factory.containsBeanDefinition(canonicalName)) {
+				// Defined in another location, or an unknown bean
+				return null;
+			}
+			dependencies.add(canonicalName);
+		}
+		return dependencies;
+	}
+
+	private boolean collectDefinitionDependencies(BeanDefinition beanDefinition, Set<String> names) {
+		if (beanDefinition instanceof AbstractBeanDefinition) {
+			AbstractBeanDefinition abstractDefinition = (AbstractBeanDefinition) beanDefinition;
+			if (abstractDefinition.getAutowireMode() != AbstractBeanDefinition.AUTOWIRE_NO) {
+				return false;
+			}
+			if (abstractDefinition.getDependsOn() != null) {
+				names.addAll(Arrays.asList(abstractDefinition.getDependsOn()));
+			}
+			for (Object override : abstractDefinition.getMethodOverrides().getOverrides()) {
+				if (override instanceof LookupOverride) {
+					names.add(((LookupOverride) override).getBeanName());
+				} else if (override instanceof ReplaceOverride) {
+					names.add(((ReplaceOverride) override).getMethodReplacerBeanName());
+				}
+			}
+		}
+		if (beanDefinition.getParentName() != null) {
+			names.add(beanDefinition.getParentName());
+		}
+		if (beanDefinition.getFactoryBeanName() != null) {
+			names.add(beanDefinition.getFactoryBeanName());
+		}
+		for (PropertyValue propertyValue : beanDefinition.getPropertyValues().getPropertyValues()) {
+			this.collectValueDependencies(propertyValue.getValue(), names);
+		}
+		ConstructorArgumentValues arguments = beanDefinition.getConstructorArgumentValues();
+		for (ConstructorArgumentValues.ValueHolder argument : arguments.getIndexedArgumentValues().values()) {
+			this.collectValueDependencies(argument.getValue(), names);
+		}
+		for (ConstructorArgumentValues.ValueHolder argument : arguments.getGenericArgumentValues()) {
+			this.collectValueDependencies(argument.getValue(), names);
+		}
+		if (!beanDefinition.isAbstract() && beanDefinition.getBeanClassName() != null) {
+			Class<?> beanClass = loadBeanClass(beanDefinition, this.classLoader);
+			return beanClass != null && this.collectInjectionDependencies(beanClass, names);
+		}
+		return true;
+	}
+
+	private void collectValueDependencies(Object value, Set<String> names) {
+		if (value instanceof BeanReference) {
+			names.add(((BeanReference) value).getBeanName());
+		} else if (value instanceof BeanDefinitionHolder) {
+			this.collectInnerDependencies(((BeanDefinitionHolder) value).getBeanDefinition(), names);
+		} else if (value instanceof BeanDefinition) {
+			this.collectInnerDependencies((BeanDefinition) value, names);
+		} else if (value instanceof Collection) {
+			for (Object element : (Collection<?>) value) {
+				this.collectValueDependencies(element, names);
+			}
+		} else if (value instanceof Map) {
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				this.collectValueDependencies(entry.getKey(), names);
+				this.collectValueDependencies(entry.getValue(), names);
+			}
+		} else if (value instanceof Object[]) {
+			for (Object element : (Object[]) value) {
+				this.collectValueDependencies(element, names);
+			}
+		}
+	}
+
+	private void collectInnerDependencies(BeanDefinition beanDefinition, Set<String> names) {
+		if (!this.collectDefinitionDependencies(beanDefinition, names)) {
+			// Makes the outer bean depend on a bean that does not exist
+			names.add("");
+		}
+	}
+
+	/**
+	 * Adds the beans injected through annotations on the fields, methods and constructors of a class
+	 *
+	 * @return false if the dependencies cannot be determined
+	 */
+	private boolean collectInjectionDependencies(Class<?> beanClass, Set<String> names) {
+		for (Constructor<?> constructor : beanClass.getDeclaredConstructors()) {
+			if (isAutowired(constructor.getAnnotations())) {
+				for (Class<?> parameterType : constructor.getParameterTypes()) {
+					this.collectTypeDependencies(parameterType, names);
+				}
+			}
+		}
+		for (Class<?> c = beanClass; c != null && c != Object.class; c = c.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+				if (Modifier.isStatic(field.getModifiers())) {
+					continue;
+				}
+				Resource resource = field.getAnnotation(Resource.class);
+				if (resource != null) {
+					this.collectResourceDependencies(resource, field.getName(), field.getType(), names);
+				} else if (isAutowired(field.getAnnotations())) {
+					this.collectTypeDependencies(field.getType(), names);
+				}
+			}
+			for (Method method : c.getDeclaredMethods()) {
+				if (Modifier.isStatic(method.getModifiers())) {
+					continue;
+				}
+				Resource resource = method.getAnnotation(Resource.class);
+				if (resource != null && method.getParameterTypes().length == 1) {
+					PropertyDescriptor property = BeanUtils.findPropertyForMethod(method);
+					this.collectResourceDependencies(resource, property != null ? property.getName() : null,
+							method.getParameterTypes()[0], names);
+				} else if (isAutowired(method.getAnnotations())) {
+					for (Class<?> parameterType : method.getParameterTypes()) {
+						this.collectTypeDependencies(parameterType, names);
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	private void collectResourceDependencies(Resource resource, String defaultName, Class<?> type,
+											 Set<String> names) {
+		String name = resource.name().length() > 0 ? resource.name() : defaultName;
+		if (name != null && this.factory.containsBean(name)) {
+			names.add(name);
+		} else if (resource.name().length() > 0) {
+			// Not defined in the shared locations
+			names.add(name);
+		} else {
+			this.collectTypeDependencies(type, names);
+		}
+	}
+
+	/**
+	 * Adds every bean that may be of the given type. Collections and maps may hold beans of any type.
+	 */
+	private void collectTypeDependencies(Class<?> type, Set<String> names) {
+		if (type.isArray() || Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type)) {
+			type = Object.class;
+		}
+		if (type.isPrimitive() || type == String.class) {
+			return;
+		}
+		for (Map.Entry<String, Class<?>> entry : this.beanTypes.entrySet()) {
+			if (entry.getValue() == null || type.isAssignableFrom(entry.getValue())) {
+				names.add(entry.getKey());
+			}
+		}
+	}
+
+	private static boolean isAutowired(Annotation[] annotations) {
+		for (Annotation annotation : annotations) {
+			if (annotation.annotationType() == Autowired.class ||
+					INJECT_ANNOTATION_NAME.equals(annotation.annotationType().getName())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	static Class<?> loadBeanClass(BeanDefinition beanDefinition, ClassLoader classLoader) {
+		if (beanDefinition.getBeanClassName() == null) {
+			return null;
+		}
+		try {
+			return ClassUtils.forName(beanDefinition.getBeanClassName(), classLoader);
+		} catch (Throwable t) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,276 @@
+package se.krite.springmock.context;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.InstantiationAwareBeanPostProcessorAdapter;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records where the time goes when TestContextLoader builds a context: XML parsing, the mocking bean factory
+ * post processor, the instantiation strategy and the full creation of every bean (instantiation, injection
+ * and init methods). Bean creation is measured both inclusive and exclusive of the beans it depends on.
+ * <p/>
+ * When a context has been refreshed, the timeline is written in the Chrome trace event format (open it in
+ * chrome://tracing, Perfetto or speedscope), and the beans with the highest exclusive creation time are logged,
+ * marked if they were proxied for mocking or are the original implementation behind such a proxy.
+ *
+ * @author kristoffer.teuber
+ */
+public class ContextLoadProfiler {
+
+	// Set this system property to true to profile every context load
+	public static final String PROFILE_PROPERTY = "springmock.profile";
+	// Directory to write the timelines to
+	public static final String PROFILE_DIR_PROPERTY = "springmock.profile.dir";
+	public static final String DEFAULT_PROFILE_DIR = "target/springmock-profile";
+
+	public static final String CATEGORY_XML = "xml";
+	public static final String CATEGORY_POST_PROCESSOR = "postProcessor";
+	public static final String CATEGORY_INSTANTIATE = "instantiate";
+	public static final String CATEGORY_BEAN = "bean";
+	public static final String CATEGORY_REFRESH = "refresh";
+
+	private static final Logger log = LoggerFactory.getLogger(ContextLoadProfiler.class);
+	private static final int TOP_BEAN_COUNT = 10;
+	private static final AtomicInteger loadCount = new AtomicInteger();
+
+	private final String name;
+	private final long startNanos = System.nanoTime();
+	private final List<Event> events = new ArrayList<Event>();
+	private final Set<String> proxiedBeanNames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final ThreadLocal<LinkedList<Frame>> creationStack = new ThreadLocal<LinkedList<Frame>>() {
+		@Override
+		protected LinkedList<Frame> initialValue() {
+			return new LinkedList<Frame>();
+		}
+	};
+
+	public ContextLoadProfiler(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return a profiler for a new context load, or null if profiling is disabled
+	 */
+	public static ContextLoadProfiler createIfEnabled(String... locations) {
+		if (!Boolean.getBoolean(PROFILE_PROPERTY)) {
+			return null;
+		}
+		return new ContextLoadProfiler("context-" + loadCount.incrementAndGet() + " " + Arrays.toString(locations));
+	}
+
+	public long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records an event that started at the given time and ends now
+	 */
+	public void end(String category, String eventName, long startNanos) {
+		this.record(category, eventName, startNanos, System.nanoTime(), -1);
+	}
+
+	public void markProxied(String beanName) {
+		this.proxiedBeanNames.add(beanName);
+	}
+
+	private void record(String category, String eventName, long startNanos, long endNanos, long selfNanos) {
+		Event event = new Event(category, eventName, Thread.currentThread().getId(),
+				startNanos - this.startNanos, endNanos - startNanos, selfNanos);
+		synchronized (this.events) {
+			this.events.add(event);
+		}
+	}
+
+	/**
+	 * A bean post processor measuring the full creation of every bean, to be added to the bean factory
+	 * before it is refreshed
+	 */
+	public InstantiationAwareBeanPostProcessorAdapter getBeanPostProcessor() {
+		return new InstantiationAwareBeanPostProcessorAdapter() {
+			@Override
+			public Object postProcessBeforeInstantiation(Class beanClass, String beanName) throws BeansException {
+				ContextLoadProfiler.this.creationStack.get().addLast(new Frame(beanName, System.nanoTime()));
+				return null;
+			}
+
+			@Override
+			public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+				ContextLoadProfiler.this.endCreation(beanName);
+				return bean;
+			}
+		};
+	}
+
+	private void endCreation(String beanName) {
+		LinkedList<Frame> stack = this.creationStack.get();
+		// Factory bean products are post processed without a matching start, and failed creations never end
+		boolean started = false;
+		for (Frame frame : stack) {
+			if (frame.beanName.equals(beanName)) {
+				started = true;
+				break;
+			}
+		}
+		if (!started) {
+			return;
+		}
+		long endNanos = System.nanoTime();
+		Frame frame;
+		do {
+			frame = stack.removeLast();
+		} while (!frame.beanName.equals(beanName));
+		long duration = endNanos - frame.startNanos;
+		if (!stack.isEmpty()) {
+			stack.getLast().childNanos += duration;
+		}
+		this.record(CATEGORY_BEAN, beanName, frame.startNanos, endNanos, duration - frame.childNanos);
+	}
+
+	/**
+	 * Writes the timeline and logs the slowest beans
+	 */
+	public void finish() {
+		List<Event> snapshot;
+		synchronized (this.events) {
+			snapshot = new ArrayList<Event>(this.events);
+		}
+		this.logSlowestBeans(snapshot);
+		File dir = new File(System.getProperty(PROFILE_DIR_PROPERTY, DEFAULT_PROFILE_DIR));
+		File file = new File(dir, this.name.substring(0, this.name.indexOf(' ')) + "-timeline.json");
+		try {
+			if (!dir.isDirectory() && !dir.mkdirs()) {
+				throw new IOException("Could not create directory " + dir);
+			}
+			Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+			try {
+				this.writeTimeline(snapshot, writer);
+			} finally {
+				writer.close();
+			}
+			log.info("Wrote context load timeline: " + file.getAbsolutePath());
+		} catch (IOException e) {
+			log.warn("Could not write context load timeline: " + file, e);
+		}
+	}
+
+	private void logSlowestBeans(List<Event> snapshot) {
+		List<Event> beans = new ArrayList<Event>();
+		for (Event event : snapshot) {
+			if (CATEGORY_BEAN.equals(event.category)) {
+				beans.add(event);
+			}
+		}
+		Collections.sort(beans, new Comparator<Event>() {
+			public int compare(Event e1, Event e2) {
+				return e1.selfNanos < e2.selfNanos ? 1 : (e1.selfNanos == e2.selfNanos ? 0 : -1);
+			}
+		});
+		StringBuilder summary = new StringBuilder("Slowest beans of " + this.name + " (exclusive/inclusive ms):");
+		for (Event bean : beans.subList(0, Math.min(TOP_BEAN_COUNT, beans.size()))) {
+			summary.append("\n\t").append(bean.name).append(": ")
+					.append(bean.selfNanos / 1000000).append("/").append(bean.durationNanos / 1000000);
+			if (this.isProxied(bean.name)) {
+				summary.append(" (proxied for mocking)");
+			} else if (this.isMockingOriginal(bean.name)) {
+				summary.append(" (original of a mocking proxy)");
+			}
+		}
+		log.info(summary.toString());
+	}
+
+	private boolean isProxied(String beanName) {
+		return this.proxiedBeanNames.contains(beanName);
+	}
+
+	/**
+	 * @return true for the original implementation (bean name + "_actual") of a proxied bean
+	 */
+	private boolean isMockingOriginal(String beanName) {
+		return beanName.endsWith(MockAliasRegistry.ACTUAL_BEAN_NAME_SUFFIX) && this.proxiedBeanNames.contains(
+				beanName.substring(0, beanName.length() - MockAliasRegistry.ACTUAL_BEAN_NAME_SUFFIX.length()));
+	}
+
+	private void writeTimeline(List<Event> snapshot, Writer writer) throws IOException {
+		writer.write("{\"displayTimeUnit\":\"ms\",\"otherData\":{\"context\":");
+		writeString(writer, this.name);
+		writer.write("},\"traceEvents\":[");
+		boolean first = true;
+		for (Event event : snapshot) {
+			writer.write(first ? "\n" : ",\n");
+			first = false;
+			writer.write("{\"ph\":\"X\",\"pid\":1,\"tid\":" + event.threadId + ",\"ts\":" + event.startNanos / 1000 +
+					",\"dur\":" + event.durationNanos / 1000 + ",\"cat\":");
+			writeString(writer, event.category);
+			writer.write(",\"name\":");
+			writeString(writer, event.name);
+			if (CATEGORY_BEAN.equals(event.category) || CATEGORY_INSTANTIATE.equals(event.category)) {
+				writer.write(",\"args\":{\"proxied\":" + this.isProxied(event.name) +
+						",\"mockingOriginal\":" + this.isMockingOriginal(event.name));
+				if (event.selfNanos >= 0) {
+					writer.write(",\"selfMs\":" + event.selfNanos / 1000000.0);
+				}
+				writer.write("}");
+			}
+			writer.write("}");
+		}
+		writer.write("\n]}\n");
+	}
+
+	private static void writeString(Writer writer, String value) throws IOException {
+		writer.write('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				writer.write('\\');
+				writer.write(c);
+			} else if (c < 0x20) {
+				writer.write(String.format("\\u%04x", (int) c));
+			} else {
+				writer.write(c);
+			}
+		}
+		writer.write('"');
+	}
+
+	/**
+	 * A complete event of the timeline, times are relative to the start of the profiler
+	 */
+	private static class Event {
+		private final String category;
+		private final String name;
+		private final long threadId;
+		private final long startNanos;
+		private final long durationNanos;
+		// Duration excluding the creation of dependencies, -1 if not measured
+		private final long selfNanos;
+
+		private Event(String category, String name, long threadId, long startNanos, long durationNanos, long selfNanos) {
+			this.category = category;
+			this.name = name;
+			this.threadId = threadId;
+			this.startNanos = startNanos;
+			this.durationNanos = durationNanos;
+			this.selfNanos = selfNanos;
+		}
+	}
+
+	/**
+	 * A bean under creation on the current thread
+	 */
+	private static class Frame {
+		private final String beanName;
+		private final long startNanos;
+		private long childNanos;
+
+		private Frame(String beanName, long startNanos) {
+			this.beanName = beanName;
+			this.startNanos = startNanos;
+		}
+	}
+}
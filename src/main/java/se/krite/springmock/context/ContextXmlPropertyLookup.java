@@ -1,14 +1,9 @@
 package se.krite.springmock.context;
 
-import com.thoughtworks.xstream.XStream;
-import com.thoughtworks.xstream.io.xml.DomDriver;
 import org.apache.commons.lang.StringUtils;
-import se.krite.springmock.context.xml.PlaceholderContext;
-import se.krite.springmock.context.xml.PlaceholderParameter;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.net.URL;
 import java.util.Properties;
 
@@ -17,7 +12,8 @@ import java.util.Properties;
  * Since different environments seem to run test cases differently, we must use a hard file-url, based on
  * our current file's absolute path.
  * The context loader looks for the named file in the current path, and all the way up to the root
- * of the hard drive.
+ * of the hard drive. Found files and their properties are cached for the whole JVM, see
+ * {@link ContextXmlPropertyResolver}.
  *
  * @author kristoffer.teuber
  */
@@ -65,31 +61,17 @@ public class ContextXmlPropertyLookup {
 	}
 
 	private void loadProperties() {
-		PlaceholderContext context = this.loadFile();
-		if (context == null)
+		this.contextConfigFile = this.findFile();
+		if (this.contextConfigFile == null)
 			return;
-
-		this.properties = new Properties();
-		for (PlaceholderParameter parameter : context.getParameters()) {
-			this.properties.put(parameter.getName(), parameter.getValue());
-			System.out.println(parameter.getName() + " = " + parameter.getValue());
-		}
-		this.properties.put(testContextFilePathParam, this.contextConfigFile.getAbsolutePath());
-
-		System.out.println("ContextXml placeholder: properties set!");
-	}
-
-	private PlaceholderContext loadFile() {
 		try {
-			this.contextConfigFile = this.findFile();
-			XStream xstream = new XStream(new DomDriver());
-			xstream.setClassLoader(this.getClass().getClassLoader());
-			xstream.processAnnotations(new Class[]{PlaceholderContext.class, PlaceholderParameter.class});
-			return (PlaceholderContext) xstream.fromXML(new FileInputStream(this.contextConfigFile));
-		} catch (FileNotFoundException e) {
+			this.properties = ContextXmlPropertyResolver.getProperties(this.contextConfigFile);
+		} catch (IOException e) {
 			e.printStackTrace();
+			return;
 		}
-		return null;
+
+		System.out.println("ContextXml placeholder: properties set!");
 	}
 
 	public File getContextConfigFile() {
@@ -111,7 +93,7 @@ public class ContextXmlPropertyLookup {
 	}
 
 	/**
-	 * Traverse file tree upwards, until file is found
+	 * Traverse file tree upwards, until file is found (once per start directory)
 	 */
 	private File findFile() {
 		String startDir = this.getFilePath();
@@ -121,24 +103,7 @@ public class ContextXmlPropertyLookup {
 	}
 
 	private File findFile(File directory) {
-		if (directory.isDirectory()) {
-			// Try to find file normally
-			File file = new File(directory.getAbsoluteFile() + "/" + this.contextFileName);
-			if (file.isFile()) {
-				return file;
-			}
-			// Also try to look for file under current folder + /META-INF/<file-name>
-			file = new File(directory.getAbsoluteFile() + "/META-INF/" + this.contextFileName);
-			if (file.isFile()) {
-				return file;
-			}
-
-			if (directory.getParentFile() != null)
-				return findFile(directory.getParentFile());
-			System.out.println("Could not find file: " + this.contextFileName);
-			return null;
-		} else
-			return directory;
+		return ContextXmlPropertyResolver.resolve(directory, this.contextFileName);
 	}
 
 	public String getFilePath() {
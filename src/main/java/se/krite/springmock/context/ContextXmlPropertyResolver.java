@@ -0,0 +1,173 @@
+package se.krite.springmock.context;
+
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.io.xml.DomDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.krite.springmock.context.xml.PlaceholderContext;
+import se.krite.springmock.context.xml.PlaceholderContextReader;
+import se.krite.springmock.context.xml.PlaceholderParameter;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Process wide cache for ContextXmlPropertyLookup. Every context loader instance looks up the same context
+ * file (testContext.xml) from the directory of its test class, so the upward search is only done once per
+ * directory and file name, and a file is only parsed again when its modification time or size has changed.
+ * Plain context files are parsed with {@link PlaceholderContextReader}, XStream is only set up for documents
+ * that reader does not handle.
+ * <p/>
+ * A resolved file is used for as long as it exists. A file created closer to the test classes during the run
+ * is not picked up, call {@link #clear()} to search again.
+ *
+ * @author kristoffer.teuber
+ */
+public class ContextXmlPropertyResolver {
+
+	private static final Logger log = LoggerFactory.getLogger(ContextXmlPropertyResolver.class);
+
+	// Resolved files by file name and start directory
+	private static final ConcurrentMap<String, File> resolvedFiles = new ConcurrentHashMap<String, File>();
+	// Parsed properties by absolute file path
+	private static final ConcurrentMap<String, ParsedFile> parsedFiles = new ConcurrentHashMap<String, ParsedFile>();
+
+	private static XStream xstream;
+
+	private ContextXmlPropertyResolver() {
+	}
+
+	/**
+	 * Finds the named file in the start directory (or its META-INF folder), or in any of its parent directories
+	 *
+	 * @return the file, or null if it could not be found
+	 */
+	public static File resolve(File startDirectory, String fileName) {
+		if (!startDirectory.isDirectory()) {
+			return startDirectory;
+		}
+		String key = fileName + "|" + startDirectory.getAbsolutePath();
+		File file = resolvedFiles.get(key);
+		if (file != null && file.isFile()) {
+			return file;
+		}
+		file = findFile(startDirectory, fileName);
+		if (file != null) {
+			resolvedFiles.put(key, file);
+		} else {
+			resolvedFiles.remove(key);
+			System.out.println("Could not find file: " + fileName);
+		}
+		return file;
+	}
+
+	/**
+	 * @return the parameters of a context file, with the absolute path of the file as
+	 *         {@link ContextXmlPropertyLookup#testContextFilePathParam}. The returned properties are a copy.
+	 */
+	public static Properties getProperties(File file) throws IOException {
+		String path = file.getAbsolutePath();
+		long lastModified = file.lastModified();
+		long length = file.length();
+		ParsedFile parsed = parsedFiles.get(path);
+		if (parsed == null || parsed.lastModified != lastModified || parsed.length != length) {
+			parsed = new ParsedFile(parse(file), lastModified, length);
+			parsedFiles.put(path, parsed);
+		}
+		Properties properties = new Properties();
+		properties.putAll(parsed.properties);
+		return properties;
+	}
+
+	/**
+	 * Forgets all resolved and parsed files
+	 */
+	public static void clear() {
+		resolvedFiles.clear();
+		parsedFiles.clear();
+	}
+
+	private static File findFile(File directory, String fileName) {
+		while (directory != null) {
+			// Try to find file normally
+			File file = new File(directory.getAbsoluteFile() + "/" + fileName);
+			if (file.isFile()) {
+				return file;
+			}
+			// Also try to look for file under current folder + /META-INF/<file-name>
+			file = new File(directory.getAbsoluteFile() + "/META-INF/" + fileName);
+			if (file.isFile()) {
+				return file;
+			}
+			directory = directory.getParentFile();
+		}
+		return null;
+	}
+
+	private static Properties parse(File file) throws IOException {
+		PlaceholderContext context = read(file);
+		Properties properties = new Properties();
+		if (context.getParameters() != null) {
+			for (PlaceholderParameter parameter : context.getParameters()) {
+				properties.put(parameter.getName(), parameter.getValue());
+				System.out.println(parameter.getName() + " = " + parameter.getValue());
+			}
+		}
+		properties.put(ContextXmlPropertyLookup.testContextFilePathParam, file.getAbsolutePath());
+		return properties;
+	}
+
+	/**
+	 * Reads plain context files with a streaming reader, and anything else with XStream
+	 */
+	private static PlaceholderContext read(File file) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			PlaceholderContext context = PlaceholderContextReader.read(in);
+			if (context != null) {
+				return context;
+			}
+		} catch (XMLStreamException e) {
+			log.debug("Could not stream " + file + ", reading it with XStream", e);
+		} finally {
+			in.close();
+		}
+		in = new FileInputStream(file);
+		try {
+			return (PlaceholderContext) getXStream().fromXML(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static synchronized XStream getXStream() {
+		if (xstream == null) {
+			xstream = new XStream(new DomDriver());
+			xstream.setClassLoader(ContextXmlPropertyResolver.class.getClassLoader());
+			xstream.processAnnotations(new Class[]{PlaceholderContext.class, PlaceholderParameter.class});
+		}
+		return xstream;
+	}
+
+	/**
+	 * The properties of a file, as of the given modification time and size
+	 */
+	private static class ParsedFile {
+		private final Properties properties;
+		private final long lastModified;
+		private final long length;
+
+		private ParsedFile(Properties properties, long lastModified, long length) {
+			this.properties = properties;
+			this.lastModified = lastModified;
+			this.length = length;
+		}
+	}
+}
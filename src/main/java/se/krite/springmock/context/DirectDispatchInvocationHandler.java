@@ -0,0 +1,79 @@
+package se.krite.springmock.context;
+
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+
+/**
+ * Invocation handler for the direct dispatch proxy mode of mockable beans. Calls are dispatched straight to the
+ * current target of the routing target source, without the advisor chain of a ProxyFactory proxy, and singleton
+ * targets are not looked up in the bean factory again (see {@link MockTargetSource}).
+ * Swapping a mock replaces the target source reference held by the {@link MockRoutingTargetSource}.
+ * <p/>
+ * equals, hashCode and toString behave like the JDK proxies created by ProxyFactory: proxies of the same
+ * interfaces and target source are equal, and toString (and equals and hashCode, if an interface declares them)
+ * are answered by the current target.
+ *
+ * @author kristoffer.teuber
+ */
+public class DirectDispatchInvocationHandler implements InvocationHandler {
+
+	private final MockRoutingTargetSource targetSource;
+
+	public DirectDispatchInvocationHandler(MockRoutingTargetSource targetSource) {
+		this.targetSource = targetSource;
+	}
+
+	public static Object createProxy(Class<?>[] interfaces, MockRoutingTargetSource targetSource,
+									 ClassLoader classLoader) {
+		return Proxy.newProxyInstance(classLoader, interfaces, new DirectDispatchInvocationHandler(targetSource));
+	}
+
+	public MockRoutingTargetSource getTargetSource() {
+		return this.targetSource;
+	}
+
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		if (method.getDeclaringClass() == Object.class) {
+			if (ReflectionUtils.isEqualsMethod(method)) {
+				return this.equalsProxy(proxy, args[0]);
+			} else if (ReflectionUtils.isHashCodeMethod(method)) {
+				return DirectDispatchInvocationHandler.class.hashCode() * 13 + this.targetSource.hashCode();
+			}
+		}
+		Object target = this.targetSource.getTarget();
+		try {
+			return invokeTarget(target, method, args);
+		} catch (IllegalAccessException e) {
+			// A method of a non public interface. The proxy passes the same Method on every call, so this is only
+			// done once per method
+			ReflectionUtils.makeAccessible(method);
+			return invokeTarget(target, method, args);
+		}
+	}
+
+	private boolean equalsProxy(Object proxy, Object other) {
+		if (proxy == other) {
+			return true;
+		}
+		if (other == null || !Proxy.isProxyClass(other.getClass())) {
+			return false;
+		}
+		InvocationHandler otherHandler = Proxy.getInvocationHandler(other);
+		return otherHandler instanceof DirectDispatchInvocationHandler &&
+				Arrays.equals(proxy.getClass().getInterfaces(), other.getClass().getInterfaces()) &&
+				this.targetSource.equals(((DirectDispatchInvocationHandler) otherHandler).targetSource);
+	}
+
+	private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getTargetException();
+		}
+	}
+}
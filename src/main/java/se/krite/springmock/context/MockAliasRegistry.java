@@ -0,0 +1,430 @@
+package se.krite.springmock.context;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinitionHolder;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.context.ApplicationContext;
+import se.krite.springmock.context.index.MockResourceIndex;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds the mocking aliases of one application context.
+ * For every mockable bean there is a stack of bean names, with the original implementation (bean name +
+ * "_actual") at the bottom, followed by class level and method level mocks.
+ * <p/>
+ * The registry is created by TestContextLoader and registered as a singleton in the context it belongs to,
+ * so several contexts can be used in parallel without sharing any mocking state.
+ * When the current thread has a route (see {@link MockRoutingContext}), pushed mocks go to stacks of that
+ * route only, and are applied to the proxies for that route only.
+ * All operations are thread safe.
+ *
+ * @author kristoffer.teuber
+ */
+public class MockAliasRegistry {
+
+	public static final String REGISTRY_BEAN_NAME = "_mock_resource_alias_registry_";
+	public static final String ACTUAL_BEAN_NAME_SUFFIX = "_actual";
+
+	// Set this system property to true to create the original implementations of mockable beans lazily,
+	// when a proxy is first routed to them
+	public static final String LAZY_ACTUAL_PROPERTY = "springmock.actual.lazyInit";
+
+	private static final Logger log = LoggerFactory.getLogger(MockAliasRegistry.class);
+
+	private final AliasScope sharedScope = new AliasScope();
+	private final ConcurrentMap<Object, AliasScope> routedScopes = new ConcurrentHashMap<Object, AliasScope>();
+	private final ConcurrentMap<String, MockRoutingTargetSource> routingTargetSources =
+			new ConcurrentHashMap<String, MockRoutingTargetSource>();
+	// Prebuilt target sources per bean name and implementation bean name
+	private final ConcurrentMap<String, ConcurrentMap<String, MockTargetSource>> targetSources =
+			new ConcurrentHashMap<String, ConcurrentMap<String, MockTargetSource>>();
+	// Mock bean names declared for each bean, used to warm the target source cache
+	private final ConcurrentMap<String, Set<String>> declaredMockBeanNames = new ConcurrentHashMap<String, Set<String>>();
+	private final ConcurrentMap<String, Set<String>> beanNameMockedAtClassLevel =
+			new ConcurrentHashMap<String, Set<String>>();
+	// All declarations registered in this registry
+	private final MockResourceIndex registeredIndex = new MockResourceIndex();
+	private volatile DefaultListableBeanFactory beanFactory;
+	private final boolean lazyActual = Boolean.getBoolean(LAZY_ACTUAL_PROPERTY);
+
+	/**
+	 * @return the registry of a context loaded by TestContextLoader, or null for any other context
+	 */
+	public static MockAliasRegistry getRegistry(ApplicationContext context) {
+		if (context == null || !context.containsBean(REGISTRY_BEAN_NAME)) {
+			return null;
+		}
+		return (MockAliasRegistry) context.getBean(REGISTRY_BEAN_NAME);
+	}
+
+	public static String getActualBeanName(String beanName) {
+		return beanName + ACTUAL_BEAN_NAME_SUFFIX;
+	}
+
+	/**
+	 * Registers all beans and class level mocks of an index, initializing every stack with the original instance
+	 */
+	public void registerAll(MockResourceIndex index) {
+		for (MockResourceIndex.Entry entry : index.getEntries()) {
+			synchronized (this.registeredIndex) {
+				this.registeredIndex.add(entry);
+			}
+			// All beans that has a alias defined at class level, will not be reset to its original impl
+			if (entry.isClassLevel()) {
+				this.addClassLevelMock(entry.getBeanName(), entry.getClassName());
+			}
+			this.pushMockBeanNameOntoStack(entry.getBeanName(), null);
+			this.addDeclaredMockBeanName(entry.getBeanName(), entry.isRestoreToOriginal() ?
+					getActualBeanName(entry.getBeanName()) : entry.getMockBeanName());
+		}
+		log.debug("Registered mocking aliases for " + this.sharedScope.aliasMap.size() + " beans");
+	}
+
+	/**
+	 * Registers an index in a refreshed context. Beans that were not mockable get an original implementation
+	 * definition, and are proxied when they are first created.
+	 *
+	 * @return false, without registering anything, if a bean that was not mockable has already been created,
+	 *         or is defined in a parent context
+	 */
+	public synchronized boolean registerLate(MockResourceIndex index) {
+		DefaultListableBeanFactory factory = this.beanFactory;
+		Set<String> newBeanNames = new LinkedHashSet<String>();
+		for (String beanName : index.getBeanNames()) {
+			if (this.isMockable(beanName)) {
+				continue;
+			}
+			if (factory.containsSingleton(beanName)) {
+				log.debug("Bean was created without a mocking proxy: " + beanName);
+				return false;
+			}
+			if (!factory.containsBeanDefinition(beanName) && factory.getParentBeanFactory() != null &&
+					factory.getParentBeanFactory().containsBean(beanName)) {
+				log.debug("Bean is defined in a parent context and cannot be proxied: " + beanName);
+				return false;
+			}
+			newBeanNames.add(beanName);
+		}
+		this.registerAll(index);
+		for (String beanName : newBeanNames) {
+			if (factory.containsBeanDefinition(beanName)) {
+				log.debug("Registering actual bean definition for lazily proxied bean: " + beanName);
+				factory.registerBeanDefinition(getActualBeanName(beanName),
+						this.createActualBeanDefinition(factory.getBeanDefinition(beanName)));
+			}
+		}
+		return true;
+	}
+
+	public void addClassLevelMock(String beanName, String className) {
+		Set<String> classNames = this.beanNameMockedAtClassLevel.get(beanName);
+		if (classNames == null) {
+			Set<String> newClassNames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+			classNames = this.beanNameMockedAtClassLevel.putIfAbsent(beanName, newClassNames);
+			if (classNames == null) {
+				classNames = newClassNames;
+			}
+		}
+		classNames.add(className);
+	}
+
+	private void addDeclaredMockBeanName(String beanName, String mockBeanName) {
+		Set<String> mockBeanNames = this.declaredMockBeanNames.get(beanName);
+		if (mockBeanNames == null) {
+			Set<String> newMockBeanNames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+			mockBeanNames = this.declaredMockBeanNames.putIfAbsent(beanName, newMockBeanNames);
+			if (mockBeanNames == null) {
+				mockBeanNames = newMockBeanNames;
+			}
+		}
+		mockBeanNames.add(mockBeanName);
+	}
+
+	/**
+	 * @return a copy of all declarations registered in this registry
+	 */
+	public MockResourceIndex getRegisteredIndex() {
+		MockResourceIndex index = new MockResourceIndex();
+		synchronized (this.registeredIndex) {
+			for (MockResourceIndex.Entry entry : this.registeredIndex.getEntries()) {
+				index.add(entry);
+			}
+		}
+		return index;
+	}
+
+	public boolean isMockedAtClassLevel(String beanName, String className) {
+		Set<String> classNames = this.beanNameMockedAtClassLevel.get(beanName);
+		return classNames != null && classNames.contains(className);
+	}
+
+	/**
+	 * Pushes a mock bean name onto the stack of a bean, creating the stack if needed.
+	 * A null mock bean name only initializes the stack with the original implementation.
+	 */
+	public void pushMockBeanNameOntoStack(String beanName, String mockBeanName) {
+		AliasScope scope = this.sharedScope;
+		AliasStack stack = scope.getOrCreateStack(beanName);
+		Object routingKey = MockRoutingContext.getRoutingKey();
+		if (routingKey != null) {
+			scope = this.getRoutedScope(routingKey);
+			stack = scope.getOrCreateStack(beanName);
+		}
+		if (mockBeanName != null) {
+			stack.push(mockBeanName);
+			scope.dirtyBeanNames.add(beanName);
+			log.debug("Pushed mocking alias for bean: " + beanName + " -> " + mockBeanName);
+		}
+	}
+
+	private AliasScope getRoutedScope(Object routingKey) {
+		AliasScope scope = this.routedScopes.get(routingKey);
+		if (scope == null) {
+			AliasScope newScope = new AliasScope();
+			scope = this.routedScopes.putIfAbsent(routingKey, newScope);
+			if (scope == null) {
+				scope = newScope;
+			}
+		}
+		return scope;
+	}
+
+	/**
+	 * @return the scope of the current route, or the shared scope if there is no route
+	 */
+	private AliasScope getCurrentScope() {
+		Object routingKey = MockRoutingContext.getRoutingKey();
+		if (routingKey != null) {
+			AliasScope scope = this.routedScopes.get(routingKey);
+			return scope != null ? scope : AliasScope.EMPTY;
+		}
+		return this.sharedScope;
+	}
+
+	public String peekMockNameFromStack(String beanName) {
+		AliasStack stack = this.sharedScope.aliasMap.get(beanName);
+		if (stack == null) {
+			return null;
+		}
+		String mockBeanName = stack.peek();
+		log.debug("Peeked mocking alias for bean: " + beanName + " -> " + mockBeanName);
+		return mockBeanName;
+	}
+
+	/**
+	 * Pops the stacks of all beans mocked since the last reset down to the original, or to the class level
+	 * mock if the test class mocks the bean at class level, and points their proxies there.
+	 * Beans that were not touched are skipped, and so are proxies that already have the right target.
+	 *
+	 * @return the number of proxies that were changed
+	 */
+	public int resetToDefaults(String testClassName) {
+		AliasScope scope = this.getCurrentScope();
+		int modified = 0;
+		for (String beanName : scope.dirtyBeanNames) {
+			AliasStack stack = scope.aliasMap.get(beanName);
+			int popToLimit = this.isMockedAtClassLevel(beanName, testClassName) ? 2 : 1;
+			String mockBeanName = stack.popTo(popToLimit);
+			if (this.modifyProxy(beanName, mockBeanName)) {
+				log.debug("Reset bean: " + beanName + " -> " + mockBeanName);
+				modified++;
+			}
+			// Only class level mocks remain dirty, until a test class without them resets the bean
+			if (stack.size() == 1) {
+				scope.dirtyBeanNames.remove(beanName);
+			}
+		}
+		return modified;
+	}
+
+	public boolean isMockable(String beanName) {
+		return this.sharedScope.aliasMap.containsKey(beanName);
+	}
+
+	public Set<String> getBeanNames() {
+		return Collections.unmodifiableSet(this.sharedScope.aliasMap.keySet());
+	}
+
+	/**
+	 * Points the proxy of a bean at another implementation, for the current route only if there is one
+	 *
+	 * @return true if the proxy was changed, false if it already had the given target or there is no proxy
+	 */
+	public boolean modifyProxy(String beanName, String mockBeanName) {
+		MockRoutingTargetSource routingTargetSource = this.routingTargetSources.get(beanName);
+		if (routingTargetSource == null) {
+			return false;
+		}
+		Object routingKey = MockRoutingContext.getRoutingKey();
+		MockTargetSource targetSource = this.getTargetSource(routingTargetSource, mockBeanName);
+		if (routingTargetSource.getTargetSource(routingKey) == targetSource) {
+			return false;
+		}
+		routingTargetSource.setTargetSource(routingKey, targetSource);
+		return true;
+	}
+
+	/**
+	 * Creates and registers the routing target source for the proxy of a mockable bean,
+	 * initially pointing at the original implementation
+	 */
+	public MockRoutingTargetSource createRoutingTargetSource(String beanName, Class<?> beanClass) {
+		MockTargetSource actualTargetSource = this.createTargetSource(beanName, getActualBeanName(beanName), beanClass);
+		MockRoutingTargetSource routingTargetSource =
+				new MockRoutingTargetSource(beanName, actualTargetSource, beanClass);
+		this.routingTargetSources.put(beanName, routingTargetSource);
+		return routingTargetSource;
+	}
+
+	private MockTargetSource getTargetSource(MockRoutingTargetSource routingTargetSource, String targetBeanName) {
+		ConcurrentMap<String, MockTargetSource> beanTargetSources =
+				this.targetSources.get(routingTargetSource.getBeanName());
+		MockTargetSource targetSource = beanTargetSources != null ? beanTargetSources.get(targetBeanName) : null;
+		if (targetSource == null) {
+			targetSource = this.createTargetSource(routingTargetSource.getBeanName(), targetBeanName,
+					routingTargetSource.getTargetClass());
+		}
+		return targetSource;
+	}
+
+	private MockTargetSource createTargetSource(String beanName, String targetBeanName, Class<?> targetClass) {
+		ConcurrentMap<String, MockTargetSource> beanTargetSources = this.targetSources.get(beanName);
+		if (beanTargetSources == null) {
+			ConcurrentMap<String, MockTargetSource> newTargetSources = new ConcurrentHashMap<String, MockTargetSource>();
+			beanTargetSources = this.targetSources.putIfAbsent(beanName, newTargetSources);
+			if (beanTargetSources == null) {
+				beanTargetSources = newTargetSources;
+			}
+		}
+		MockTargetSource newTargetSource = new MockTargetSource(targetBeanName, targetClass, this.beanFactory);
+		MockTargetSource targetSource = beanTargetSources.putIfAbsent(targetBeanName, newTargetSource);
+		return targetSource != null ? targetSource : newTargetSource;
+	}
+
+	/**
+	 * Prebuilds the target sources of all declared mocks of all proxied beans. Called when the context
+	 * has been refreshed, so that switching mocks during the tests does not allocate anything.
+	 */
+	public void warmTargetSources() {
+		int count = 0;
+		for (MockRoutingTargetSource routingTargetSource : this.routingTargetSources.values()) {
+			Set<String> mockBeanNames = this.declaredMockBeanNames.get(routingTargetSource.getBeanName());
+			if (mockBeanNames == null) {
+				continue;
+			}
+			for (String mockBeanName : mockBeanNames) {
+				if (mockBeanName.length() > 0) {
+					this.getTargetSource(routingTargetSource, mockBeanName);
+					count++;
+				}
+			}
+		}
+		log.debug("Prebuilt " + count + " mock target sources");
+	}
+
+	/**
+	 * Drops all stacks and proxy routes of a closed route
+	 */
+	public void clearRoute(Object routingKey) {
+		if (routingKey == null) {
+			return;
+		}
+		this.routedScopes.remove(routingKey);
+		for (MockRoutingTargetSource routingTargetSource : this.routingTargetSources.values()) {
+			routingTargetSource.clearRoute(routingKey);
+		}
+	}
+
+	public List<BeanDefinitionHolder> getActualImplementationBeans(ConfigurableListableBeanFactory beanFactory) {
+		List<BeanDefinitionHolder> holders = new ArrayList<BeanDefinitionHolder>();
+		for (String beanName : this.sharedScope.aliasMap.keySet()) {
+			if (beanFactory.containsBeanDefinition(beanName)) {
+				BeanDefinition original = beanFactory.getBeanDefinition(beanName);
+				holders.add(new BeanDefinitionHolder(this.createActualBeanDefinition(original),
+						getActualBeanName(beanName)));
+			}
+		}
+		return holders;
+	}
+
+	/**
+	 * The original implementation shares the definition of the mockable bean, or gets a lazy copy of it
+	 * if original implementations are created lazily
+	 */
+	private BeanDefinition createActualBeanDefinition(BeanDefinition original) {
+		if (!this.lazyActual || !(original instanceof AbstractBeanDefinition)) {
+			return original;
+		}
+		AbstractBeanDefinition actual = ((AbstractBeanDefinition) original).cloneBeanDefinition();
+		actual.setLazyInit(true);
+		return actual;
+	}
+
+	public DefaultListableBeanFactory getBeanFactory() {
+		return this.beanFactory;
+	}
+
+	public void setBeanFactory(DefaultListableBeanFactory beanFactory) {
+		this.beanFactory = beanFactory;
+	}
+
+	/**
+	 * The alias stacks of the shared default targets or of one route, and the beans mocked since the last reset
+	 */
+	private static class AliasScope {
+		private static final AliasScope EMPTY = new AliasScope();
+
+		private final ConcurrentMap<String, AliasStack> aliasMap = new ConcurrentHashMap<String, AliasStack>();
+		private final Set<String> dirtyBeanNames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+		private AliasStack getOrCreateStack(String beanName) {
+			AliasStack stack = this.aliasMap.get(beanName);
+			if (stack == null) {
+				AliasStack newStack = new AliasStack(getActualBeanName(beanName));
+				stack = this.aliasMap.putIfAbsent(beanName, newStack);
+				if (stack == null) {
+					stack = newStack;
+					log.debug("Initialized alias for bean: " + beanName);
+				}
+			}
+			return stack;
+		}
+	}
+
+	/**
+	 * A stack of bean names that always keeps the original implementation at the bottom
+	 */
+	private static class AliasStack {
+		private final List<String> names = new ArrayList<String>();
+
+		private AliasStack(String actualBeanName) {
+			this.names.add(actualBeanName);
+		}
+
+		private synchronized void push(String beanName) {
+			this.names.add(beanName);
+		}
+
+		private synchronized String peek() {
+			return this.names.get(this.names.size() - 1);
+		}
+
+		private synchronized int size() {
+			return this.names.size();
+		}
+
+		private synchronized String popTo(int size) {
+			while (this.names.size() > size) {
+				this.names.remove(this.names.size() - 1);
+			}
+			return this.names.get(this.names.size() - 1);
+		}
+	}
+}
@@ -0,0 +1,266 @@
+package se.krite.springmock.context;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Collects the overhead of the mocking framework per test method, as measured by
+ * MockResourceTestExecutionListener: the time spent in prepareTestInstance, beforeTestMethod and
+ * afterTestMethod, the number of proxies that were pointed at another implementation, and the number of
+ * bytes allocated by the listener (on JVMs that can measure allocations per thread, -1 otherwise).
+ * <p/>
+ * At the end of the run, one line per test method is written as CSV to target/springmock-metrics.csv,
+ * and the test classes with the highest overhead are logged.
+ *
+ * @author kristoffer.teuber
+ */
+public class MockMetrics {
+
+	// Set this system property to true to collect metrics for all tests
+	public static final String METRICS_PROPERTY = "springmock.metrics";
+	// File to write the report to
+	public static final String METRICS_FILE_PROPERTY = "springmock.metrics.file";
+	public static final String DEFAULT_METRICS_FILE = "target/springmock-metrics.csv";
+
+	public static final int PHASE_PREPARE = 0;
+	public static final int PHASE_BEFORE = 1;
+	public static final int PHASE_AFTER = 2;
+
+	private static final Logger log = LoggerFactory.getLogger(MockMetrics.class);
+	private static final String[] PHASE_NAMES = {"prepare", "before", "after"};
+	private static final int TOP_CLASS_COUNT = 10;
+	private static final MockMetrics instance = Boolean.getBoolean(METRICS_PROPERTY) ? new MockMetrics() : null;
+
+	private final ConcurrentMap<String, TestMetrics> metricsByTest = new ConcurrentHashMap<String, TestMetrics>();
+	// prepareTestInstance runs before the test method is known, it is kept until beforeTestMethod
+	private final ThreadLocal<TestMetrics> preparedTest = new ThreadLocal<TestMetrics>();
+
+	private MockMetrics() {
+		Runtime.getRuntime().addShutdownHook(new Thread("springmock-metrics") {
+			@Override
+			public void run() {
+				MockMetrics.this.writeReport();
+			}
+		});
+	}
+
+	/**
+	 * @return the metrics of this run, or null if metrics are disabled
+	 */
+	public static MockMetrics getInstance() {
+		return instance;
+	}
+
+	/**
+	 * A measurement point, see {@link #record}
+	 */
+	public Sample start() {
+		return new Sample(System.nanoTime(), AllocationCounter.getAllocatedBytes());
+	}
+
+	/**
+	 * Records a phase of a test, started by the given sample
+	 *
+	 * @param methodName the test method, or null for prepareTestInstance
+	 */
+	public void record(String testClassName, String methodName, int phase, Sample start, int swappedProxies) {
+		long nanos = System.nanoTime() - start.nanos;
+		long allocatedBytes = AllocationCounter.getAllocatedBytes();
+		allocatedBytes = allocatedBytes >= 0 && start.allocatedBytes >= 0 ? allocatedBytes - start.allocatedBytes : -1;
+		TestMetrics metrics;
+		if (methodName == null) {
+			metrics = new TestMetrics(testClassName, null);
+			this.preparedTest.set(metrics);
+		} else {
+			String key = testClassName + "#" + methodName;
+			metrics = this.metricsByTest.get(key);
+			if (metrics == null) {
+				metrics = new TestMetrics(testClassName, methodName);
+				TestMetrics prepared = this.preparedTest.get();
+				if (prepared != null && prepared.testClassName.equals(testClassName)) {
+					metrics.add(prepared);
+				}
+				this.preparedTest.remove();
+				TestMetrics existing = this.metricsByTest.putIfAbsent(key, metrics);
+				if (existing != null) {
+					metrics = existing;
+				}
+			}
+		}
+		metrics.add(phase, nanos, swappedProxies, allocatedBytes);
+	}
+
+	private void writeReport() {
+		List<TestMetrics> tests = new ArrayList<TestMetrics>(this.metricsByTest.values());
+		if (tests.isEmpty()) {
+			return;
+		}
+		Collections.sort(tests, new Comparator<TestMetrics>() {
+			public int compare(TestMetrics m1, TestMetrics m2) {
+				int result = m1.testClassName.compareTo(m2.testClassName);
+				return result != 0 ? result : m1.methodName.compareTo(m2.methodName);
+			}
+		});
+		File file = new File(System.getProperty(METRICS_FILE_PROPERTY, DEFAULT_METRICS_FILE));
+		try {
+			File dir = file.getAbsoluteFile().getParentFile();
+			if (!dir.isDirectory() && !dir.mkdirs()) {
+				throw new IOException("Could not create directory " + dir);
+			}
+			Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+			try {
+				writer.write("class,method");
+				for (String phaseName : PHASE_NAMES) {
+					writer.write("," + phaseName + "Micros," + phaseName + "Swaps," + phaseName + "AllocatedBytes");
+				}
+				writer.write(",totalMicros,totalSwaps,totalAllocatedBytes\n");
+				for (TestMetrics test : tests) {
+					writer.write(test.toCsv());
+					writer.write("\n");
+				}
+			} finally {
+				writer.close();
+			}
+			log.info("Wrote mocking metrics for " + tests.size() + " tests: " + file.getAbsolutePath());
+		} catch (IOException e) {
+			log.warn("Could not write mocking metrics: " + file, e);
+		}
+		this.logSlowestClasses(tests);
+	}
+
+	private void logSlowestClasses(List<TestMetrics> tests) {
+		Map<String, TestMetrics> classes = new HashMap<String, TestMetrics>();
+		TestMetrics total = new TestMetrics("total", null);
+		for (TestMetrics test : tests) {
+			TestMetrics testClass = classes.get(test.testClassName);
+			if (testClass == null) {
+				testClass = new TestMetrics(test.testClassName, null);
+				classes.put(test.testClassName, testClass);
+			}
+			testClass.add(test);
+			total.add(test);
+		}
+		List<TestMetrics> sorted = new ArrayList<TestMetrics>(classes.values());
+		Collections.sort(sorted, new Comparator<TestMetrics>() {
+			public int compare(TestMetrics m1, TestMetrics m2) {
+				return m1.getTotalNanos() < m2.getTotalNanos() ? 1 : (m1.getTotalNanos() == m2.getTotalNanos() ? 0 : -1);
+			}
+		});
+		StringBuilder summary = new StringBuilder("Mocking overhead of " + tests.size() + " tests: " +
+				total.getTotalNanos() / 1000000 + " ms, " + total.getTotalSwaps() + " proxy swaps. Slowest classes:");
+		for (TestMetrics testClass : sorted.subList(0, Math.min(TOP_CLASS_COUNT, sorted.size()))) {
+			summary.append("\n\t").append(testClass.testClassName).append(": ")
+					.append(testClass.getTotalNanos() / 1000000).append(" ms, ")
+					.append(testClass.getTotalSwaps()).append(" swaps");
+		}
+		log.info(summary.toString());
+	}
+
+	/**
+	 * Time and allocation counters at the start of a phase
+	 */
+	public static class Sample {
+		private final long nanos;
+		private final long allocatedBytes;
+
+		private Sample(long nanos, long allocatedBytes) {
+			this.nanos = nanos;
+			this.allocatedBytes = allocatedBytes;
+		}
+	}
+
+	/**
+	 * The summed phases of a test method, or of a test class
+	 */
+	private static class TestMetrics {
+		private final String testClassName;
+		private final String methodName;
+		private final long[] nanos = new long[PHASE_NAMES.length];
+		private final long[] swaps = new long[PHASE_NAMES.length];
+		private final long[] allocatedBytes = new long[PHASE_NAMES.length];
+
+		private TestMetrics(String testClassName, String methodName) {
+			this.testClassName = testClassName;
+			this.methodName = methodName;
+		}
+
+		private synchronized void add(int phase, long phaseNanos, long phaseSwaps, long phaseAllocatedBytes) {
+			this.nanos[phase] += phaseNanos;
+			this.swaps[phase] += phaseSwaps;
+			this.allocatedBytes[phase] = phaseAllocatedBytes < 0 || this.allocatedBytes[phase] < 0 ?
+					-1 : this.allocatedBytes[phase] + phaseAllocatedBytes;
+		}
+
+		private synchronized void add(TestMetrics other) {
+			for (int phase = 0; phase < PHASE_NAMES.length; phase++) {
+				this.add(phase, other.nanos[phase], other.swaps[phase], other.allocatedBytes[phase]);
+			}
+		}
+
+		private synchronized long getTotalNanos() {
+			return this.nanos[PHASE_PREPARE] + this.nanos[PHASE_BEFORE] + this.nanos[PHASE_AFTER];
+		}
+
+		private synchronized long getTotalSwaps() {
+			return this.swaps[PHASE_PREPARE] + this.swaps[PHASE_BEFORE] + this.swaps[PHASE_AFTER];
+		}
+
+		private synchronized String toCsv() {
+			StringBuilder csv = new StringBuilder();
+			csv.append(this.testClassName).append(',').append(this.methodName);
+			long totalAllocatedBytes = 0;
+			for (int phase = 0; phase < PHASE_NAMES.length; phase++) {
+				csv.append(',').append(this.nanos[phase] / 1000).append(',').append(this.swaps[phase])
+						.append(',').append(this.allocatedBytes[phase]);
+				totalAllocatedBytes = this.allocatedBytes[phase] < 0 || totalAllocatedBytes < 0 ?
+						-1 : totalAllocatedBytes + this.allocatedBytes[phase];
+			}
+			csv.append(',').append(this.getTotalNanos() / 1000).append(',').append(this.getTotalSwaps())
+					.append(',').append(totalAllocatedBytes);
+			return csv.toString();
+		}
+	}
+
+	/**
+	 * Reads the bytes allocated by the current thread, on JVMs that support it
+	 */
+	private static class AllocationCounter {
+		private static final boolean supported = isSupported();
+
+		private static boolean isSupported() {
+			try {
+				Class<?> threadMXBeanClass = Class.forName("com.sun.management.ThreadMXBean");
+				return threadMXBeanClass.isInstance(ManagementFactory.getThreadMXBean()) &&
+						AllocatedBytesReader.isEnabled();
+			} catch (Throwable t) {
+				return false;
+			}
+		}
+
+		private static long getAllocatedBytes() {
+			return supported ? AllocatedBytesReader.read() : -1;
+		}
+	}
+
+	/**
+	 * Only loaded when com.sun.management.ThreadMXBean is available
+	 */
+	private static class AllocatedBytesReader {
+		private static final com.sun.management.ThreadMXBean threadMXBean =
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+		private static boolean isEnabled() {
+			return threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled();
+		}
+
+		private static long read() {
+			return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+	}
+}
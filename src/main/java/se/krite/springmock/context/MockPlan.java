@@ -0,0 +1,112 @@
+package se.krite.springmock.context;
+
+import java.lang.reflect.Method;
+import java.util.*;
+
+/**
+ * The resolved mock configuration of one test class: the class level overrides, the beans that are mocked by
+ * any of its methods, and the overrides of each method. Plans are computed once per test class by
+ * {@link MockingClassLoader#getMockPlan(Class)} and are immutable, so the execution listener only has to look
+ * up the entry of the current test.
+ *
+ * @author kristoffer.teuber
+ */
+public class MockPlan {
+
+	private final String testClassName;
+	private final List<MockOverride> classOverrides;
+	private final Set<String> methodLevelBeanNames;
+	private final Map<Method, List<MockOverride>> methodOverrides;
+
+	public MockPlan(String testClassName, List<MockOverride> classOverrides,
+			Map<Method, List<MockOverride>> methodOverrides) {
+		this.testClassName = testClassName;
+		this.classOverrides = Collections.unmodifiableList(new ArrayList<MockOverride>(classOverrides));
+		Set<String> beanNames = new LinkedHashSet<String>();
+		Map<Method, List<MockOverride>> overrides = new LinkedHashMap<Method, List<MockOverride>>();
+		for (Map.Entry<Method, List<MockOverride>> entry : methodOverrides.entrySet()) {
+			for (MockOverride override : entry.getValue()) {
+				beanNames.add(override.getBeanName());
+			}
+			overrides.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<MockOverride>(entry.getValue())));
+		}
+		this.methodLevelBeanNames = Collections.unmodifiableSet(beanNames);
+		this.methodOverrides = Collections.unmodifiableMap(overrides);
+	}
+
+	public String getTestClassName() {
+		return this.testClassName;
+	}
+
+	public List<MockOverride> getClassOverrides() {
+		return this.classOverrides;
+	}
+
+	/**
+	 * @return the names of all beans mocked by at least one method of the test class
+	 */
+	public Set<String> getMethodLevelBeanNames() {
+		return this.methodLevelBeanNames;
+	}
+
+	/**
+	 * @return the overrides of a test method, never null
+	 */
+	public List<MockOverride> getMethodOverrides(Method method) {
+		List<MockOverride> overrides = this.methodOverrides.get(method);
+		return overrides != null ? overrides : Collections.<MockOverride>emptyList();
+	}
+
+	/**
+	 * @return the overrides of all methods that have any
+	 */
+	public Map<Method, List<MockOverride>> getMethodOverrides() {
+		return this.methodOverrides;
+	}
+
+	@Override
+	public String toString() {
+		return "MockPlan for " + this.testClassName + ": class=" + this.classOverrides +
+				" methods=" + this.methodOverrides;
+	}
+
+	/**
+	 * One bean pointed at another implementation, with @MockResource(restoreToOriginal) already resolved
+	 * to the original implementation bean name
+	 */
+	public static class MockOverride {
+		private final String beanName;
+		private final String mockBeanName;
+
+		public MockOverride(String beanName, String mockBeanName) {
+			this.beanName = beanName;
+			this.mockBeanName = mockBeanName;
+		}
+
+		public static MockOverride fromResource(MockResource resource) {
+			String mockBeanName = resource.restoreToOriginal() ?
+					MockAliasRegistry.getActualBeanName(resource.beanName()) : resource.mockBeanName();
+			return new MockOverride(resource.beanName(), mockBeanName);
+		}
+
+		public String getBeanName() {
+			return this.beanName;
+		}
+
+		public String getMockBeanName() {
+			return this.mockBeanName;
+		}
+
+		/**
+		 * @return true if the proxy has to be pointed at another bean
+		 */
+		public boolean isProxyChange() {
+			return !this.beanName.equals(this.mockBeanName);
+		}
+
+		@Override
+		public String toString() {
+			return this.beanName + "=" + this.mockBeanName;
+		}
+	}
+}
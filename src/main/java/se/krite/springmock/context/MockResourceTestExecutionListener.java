@@ -6,7 +6,9 @@ import org.springframework.test.context.TestContext;
 import org.springframework.test.context.support.AbstractTestExecutionListener;
 
 /**
- * Execution listener that harvests mock overrides from test cases
+ * Execution listener that harvests mock overrides from test cases.
+ * When metrics are enabled, the time spent in each callback and the proxies it changed are recorded
+ * in {@link MockMetrics}.
  *
  * @author kristoffer.teuber
  */
@@ -17,20 +19,55 @@ public class MockResourceTestExecutionListener extends AbstractTestExecutionList
 	@Override
 	public void prepareTestInstance(final TestContext testContext) throws Exception {
 		this.log.debug("Preparing new test class: " + testContext.getTestClass().getName());
-		MockingClassLoader.registerAliases(testContext);
-		MockingClassLoader.modifyMockingProxies(testContext);
+		testContext.getApplicationContext();
+		// The first load of the context is not counted as mocking overhead, see ContextLoadProfiler
+		MockMetrics metrics = MockMetrics.getInstance();
+		MockMetrics.Sample start = metrics != null ? metrics.start() : null;
+		// The context is shared with other test classes, so it is not reloaded when the test class mocks a bean
+		// that was already created without a proxy
+		if (!MockingClassLoader.registerTestClass(testContext)) {
+			throw new IllegalStateException("Beans mocked by " + testContext.getTestClass().getName() +
+					" were created without a mocking proxy by a context shared with other test classes. " +
+					"Run without " + MockingClassLoader.SELECTED_CLASSES_ONLY_PROPERTY + " or make the beans lazy.");
+		}
+		int swapped = 0;
+		// With per thread routing the class level mocks are applied to the route of each test method instead
+		if (!MockRoutingContext.isPerThreadRoutingEnabled()) {
+			swapped = MockingClassLoader.modifyMockingProxies(testContext);
+		}
+		if (metrics != null) {
+			metrics.record(testContext.getTestClass().getName(), null, MockMetrics.PHASE_PREPARE, start, swapped);
+		}
 	}
 
 	@Override
 	public void beforeTestMethod(final TestContext testContext) throws Exception {
 		this.log.debug("Preparing new test method: " + testContext.getTestMethod().getName());
-		MockingClassLoader.resetAllProxiesToDefaultValues(testContext);
-		MockingClassLoader.modifyMockingProxies(testContext);
+		MockMetrics metrics = MockMetrics.getInstance();
+		MockMetrics.Sample start = metrics != null ? metrics.start() : null;
+		Object routingKey = MockRoutingContext.openRoute(testContext.getTestClass().getName() + "#" +
+				testContext.getTestMethod().getName());
+		int swapped = MockingClassLoader.resetAllProxiesToDefaultValues(testContext);
+		if (routingKey != null) {
+			swapped += MockingClassLoader.modifyClassMockingProxies(testContext);
+		}
+		swapped += MockingClassLoader.modifyMockingProxies(testContext);
+		if (metrics != null) {
+			metrics.record(testContext.getTestClass().getName(), testContext.getTestMethod().getName(),
+					MockMetrics.PHASE_BEFORE, start, swapped);
+		}
 	}
 
 	@Override
 	public void afterTestMethod(TestContext testContext) throws Exception {
 		this.log.debug("Cleaning up after test method: " + testContext.getTestMethod().getName());
-		MockingClassLoader.resetAllProxiesToDefaultValues(testContext);
+		MockMetrics metrics = MockMetrics.getInstance();
+		MockMetrics.Sample start = metrics != null ? metrics.start() : null;
+		int swapped = MockingClassLoader.resetAllProxiesToDefaultValues(testContext);
+		MockingClassLoader.closeRoute(testContext);
+		if (metrics != null) {
+			metrics.record(testContext.getTestClass().getName(), testContext.getTestMethod().getName(),
+					MockMetrics.PHASE_AFTER, start, swapped);
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,79 @@
+package se.krite.springmock.context;
+
+/**
+ * Holds the routing key of the test running on the current thread.
+ * When per thread routing is enabled, MockResourceTestExecutionListener opens a new route before every test
+ * method and closes it after the method, and all mocks pushed by that test are only visible to its own thread
+ * (and threads started by it). Without a route, mocks are applied to the shared default target of each proxy.
+ *
+ * @author kristoffer.teuber
+ */
+public class MockRoutingContext {
+
+	// Set this system property to true to let concurrently running tests on one context see their own mocks
+	public static final String PER_THREAD_ROUTING_PROPERTY = "springmock.routing.perThread";
+
+	private static final boolean perThreadRoutingEnabled = Boolean.getBoolean(PER_THREAD_ROUTING_PROPERTY);
+	// Inherited so that threads started by a test method (for example by an executor the test calls) see the
+	// mocks of the test. The route is only open while a test method runs, and threads that still hold it after
+	// the method are routed to the shared default targets, as the key is closed.
+	private static final ThreadLocal<RoutingKey> routingKey = new InheritableThreadLocal<RoutingKey>();
+
+	public static boolean isPerThreadRoutingEnabled() {
+		return perThreadRoutingEnabled;
+	}
+
+	/**
+	 * @return the routing key of the current thread, or null if mocks should go to the shared default targets
+	 */
+	public static Object getRoutingKey() {
+		RoutingKey key = routingKey.get();
+		return key != null && !key.closed ? key : null;
+	}
+
+	/**
+	 * Opens a new route for the current thread, if per thread routing is enabled
+	 *
+	 * @return the new routing key, or null if per thread routing is disabled
+	 */
+	public static Object openRoute(String description) {
+		if (!perThreadRoutingEnabled) {
+			return null;
+		}
+		RoutingKey key = new RoutingKey(description);
+		routingKey.set(key);
+		return key;
+	}
+
+	/**
+	 * Closes the route of the current thread
+	 *
+	 * @return the closed routing key, or null if there was no route
+	 */
+	public static Object closeRoute() {
+		RoutingKey key = routingKey.get();
+		routingKey.remove();
+		if (key != null) {
+			key.closed = true;
+		}
+		return key;
+	}
+
+	/**
+	 * Routing keys use identity equality, a new key is created for every test
+	 */
+	private static class RoutingKey {
+		private final String description;
+		// Child threads inherit the key, and may still hold it after the test is done
+		private volatile boolean closed;
+
+		private RoutingKey(String description) {
+			this.description = description;
+		}
+
+		@Override
+		public String toString() {
+			return "route[" + this.description + "]";
+		}
+	}
+}
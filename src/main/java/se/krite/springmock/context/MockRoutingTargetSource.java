@@ -0,0 +1,90 @@
+package se.krite.springmock.context;
+
+import org.springframework.aop.TargetSource;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Target source for mockable beans, resolving the implementation to use for every invocation.
+ * Each routing key (see {@link MockRoutingContext}) may point the proxy at its own implementation,
+ * all other callers use the shared default target.
+ * Implementations are prebuilt {@link MockTargetSource} instances, so switching is a reference assignment.
+ *
+ * @author kristoffer.teuber
+ */
+public class MockRoutingTargetSource implements TargetSource {
+
+	private final String beanName;
+	private final Class<?> targetClass;
+	private final ConcurrentMap<Object, MockTargetSource> routedTargetSources =
+			new ConcurrentHashMap<Object, MockTargetSource>();
+	private volatile MockTargetSource defaultTargetSource;
+
+	public MockRoutingTargetSource(String beanName, MockTargetSource defaultTargetSource, Class<?> targetClass) {
+		this.beanName = beanName;
+		this.defaultTargetSource = defaultTargetSource;
+		this.targetClass = targetClass;
+	}
+
+	/**
+	 * @return the implementation the given routing key is routed to
+	 */
+	public MockTargetSource getTargetSource(Object routingKey) {
+		if (routingKey != null && !this.routedTargetSources.isEmpty()) {
+			MockTargetSource routedTargetSource = this.routedTargetSources.get(routingKey);
+			if (routedTargetSource != null) {
+				return routedTargetSource;
+			}
+		}
+		return this.defaultTargetSource;
+	}
+
+	/**
+	 * @return the name of the implementation the current thread is routed to
+	 */
+	public String getTargetBeanName() {
+		return this.getTargetSource(MockRoutingContext.getRoutingKey()).getTargetBeanName();
+	}
+
+	/**
+	 * Routes a key to an implementation, a null key changes the shared default target
+	 */
+	public void setTargetSource(Object routingKey, MockTargetSource targetSource) {
+		if (routingKey == null) {
+			this.defaultTargetSource = targetSource;
+		} else {
+			this.routedTargetSources.put(routingKey, targetSource);
+		}
+	}
+
+	public void clearRoute(Object routingKey) {
+		this.routedTargetSources.remove(routingKey);
+	}
+
+	public String getBeanName() {
+		return this.beanName;
+	}
+
+	public Class<?> getTargetClass() {
+		return this.targetClass;
+	}
+
+	public boolean isStatic() {
+		return false;
+	}
+
+	public Object getTarget() throws Exception {
+		return this.getTargetSource(MockRoutingContext.getRoutingKey()).getTarget();
+	}
+
+	public void releaseTarget(Object target) throws Exception {
+		// Nothing to release, targets are owned by the bean factory
+	}
+
+	@Override
+	public String toString() {
+		return "MockRoutingTargetSource for bean '" + this.beanName + "' -> " +
+				this.defaultTargetSource.getTargetBeanName();
+	}
+}
@@ -0,0 +1,61 @@
+package se.krite.springmock.context;
+
+import org.springframework.aop.TargetSource;
+import org.springframework.beans.factory.BeanFactory;
+
+/**
+ * Target source for one implementation of a mockable bean, either the original (bean name + "_actual") or
+ * a mock. Instances are created once per bean and implementation by {@link MockAliasRegistry} and shared by
+ * all routes, so switching a mock never allocates a new target source.
+ * <p/>
+ * The target is looked up lazily, so warming the cache never instantiates a lazy bean. Singleton targets
+ * are kept after the first lookup.
+ *
+ * @author kristoffer.teuber
+ */
+public class MockTargetSource implements TargetSource {
+
+	private final String targetBeanName;
+	private final Class<?> targetClass;
+	private final BeanFactory beanFactory;
+	private volatile Object singletonTarget;
+
+	public MockTargetSource(String targetBeanName, Class<?> targetClass, BeanFactory beanFactory) {
+		this.targetBeanName = targetBeanName;
+		this.targetClass = targetClass;
+		this.beanFactory = beanFactory;
+	}
+
+	public String getTargetBeanName() {
+		return this.targetBeanName;
+	}
+
+	public Class<?> getTargetClass() {
+		return this.targetClass;
+	}
+
+	public boolean isStatic() {
+		return false;
+	}
+
+	public Object getTarget() throws Exception {
+		Object target = this.singletonTarget;
+		if (target != null) {
+			return target;
+		}
+		target = this.beanFactory.getBean(this.targetBeanName);
+		if (this.beanFactory.isSingleton(this.targetBeanName)) {
+			this.singletonTarget = target;
+		}
+		return target;
+	}
+
+	public void releaseTarget(Object target) throws Exception {
+		// Nothing to release, targets are owned by the bean factory
+	}
+
+	@Override
+	public String toString() {
+		return "MockTargetSource for target bean '" + this.targetBeanName + "'";
+	}
+}
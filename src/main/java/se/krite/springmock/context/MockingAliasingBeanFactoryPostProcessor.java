@@ -20,15 +20,24 @@ public class MockingAliasingBeanFactoryPostProcessor implements BeanFactoryPostP
 
 	private final Logger log = LoggerFactory.getLogger(getClass());
 
-	public MockingAliasingBeanFactoryPostProcessor() {
+	private final MockAliasRegistry registry;
+	private ContextLoadProfiler profiler;
+
+	public MockingAliasingBeanFactoryPostProcessor(MockAliasRegistry registry) {
+		this.registry = registry;
 		log.debug("MockingAliasingBeanFactoryPostProcessor initialized!");
 	}
 
+	public void setProfiler(ContextLoadProfiler profiler) {
+		this.profiler = profiler;
+	}
+
 	public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException {
 		log.debug("Starting to registering actual bean definitions...");
+		long start = this.profiler != null ? this.profiler.start() : 0;
 		if (beanFactory instanceof BeanDefinitionRegistry) {
 			List<BeanDefinitionHolder> actualImplementations =
-					MockingClassLoader.getActualImplementationBeans(beanFactory);
+					this.registry.getActualImplementationBeans(beanFactory);
 			for (BeanDefinitionHolder bdh : actualImplementations) {
 				log.debug("Registering actual bean definition for bean: " + bdh.getBeanName() +
 						" -> " + bdh.getBeanDefinition().getBeanClassName());
@@ -36,6 +45,9 @@ public class MockingAliasingBeanFactoryPostProcessor implements BeanFactoryPostP
 						bdh.getBeanDefinition());
 			}
 		}
+		if (this.profiler != null) {
+			this.profiler.end(ContextLoadProfiler.CATEGORY_POST_PROCESSOR, getClass().getSimpleName(), start);
+		}
 		log.debug("Done registering actual bean definitions!");
 	}
 }
@@ -2,28 +2,44 @@ package se.krite.springmock.context;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.aop.framework.Advised;
+import org.springframework.aop.TargetSource;
 import org.springframework.aop.framework.ProxyFactory;
-import org.springframework.aop.target.SimpleBeanTargetSource;
+import org.springframework.beans.factory.BeanClassLoaderAware;
 import org.springframework.beans.factory.BeanFactory;
-import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.BeanNameAware;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.support.CglibSubclassingInstantiationStrategy;
-import org.springframework.beans.factory.support.DefaultListableBeanFactory;
 import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ApplicationEventPublisherAware;
+import org.springframework.context.EmbeddedValueResolverAware;
+import org.springframework.context.Lifecycle;
+import org.springframework.context.MessageSourceAware;
+import org.springframework.context.ResourceLoaderAware;
+import org.springframework.context.weaving.LoadTimeWeaverAware;
 import org.springframework.util.ClassUtils;
+import org.springframework.web.context.ServletContextAware;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Mocking implementation of spring's bean factory.
  * It is used for making injection of mocking implementations easier.
- * The factory will look in it's alias list before resolving a dependency, thus making it
+ * The factory will look in the alias registry of its context before resolving a dependency, thus making it
  * possible to override the name of an injected resource.
  * The population of the alias list is done using a custom annotation.
- * If an alias is found, a jdk proxy is created.
+ * If an alias is found, a jdk proxy with a {@link MockRoutingTargetSource} is created.
  * This proxy is later used by MockResourceTestExecutionListener to redirect to correct implementation
- * when needed
+ * when needed.
+ * With the direct dispatch system property set, the proxy calls the current implementation through a
+ * {@link DirectDispatchInvocationHandler} instead of a ProxyFactory advisor chain.
+ * The proxy does not implement the lifecycle and aware interfaces of the bean, the factory would otherwise call
+ * their callbacks on the proxy, and so on the original implementation a second time (creating it if it is lazy).
  *
  * @author kristoffer.teuber
  */
@@ -32,13 +48,34 @@ public class MockingAliasingCglibSubclassingInstantiationStrategy extends CglibS
 	private static final Logger log = LoggerFactory.getLogger(
 			MockingAliasingCglibSubclassingInstantiationStrategy.class);
 
-	public static Object createProxy(Class beanClass, String targetBeanName,
-									 Class mockingClass, BeanFactory beanFactory) {
-		SimpleBeanTargetSource targetSource = createTargetSource(targetBeanName, mockingClass, beanFactory);
+	// Set this system property to true to create direct dispatch proxies for mockable beans
+	public static final String DIRECT_DISPATCH_PROPERTY = "springmock.proxy.directDispatch";
+
+	// Callback interfaces of beans that are left off their proxies
+	private static final Class[] CALLBACK_INTERFACES = {
+			InitializingBean.class, DisposableBean.class, Lifecycle.class,
+			BeanNameAware.class, BeanClassLoaderAware.class, BeanFactoryAware.class,
+			ApplicationContextAware.class, ApplicationEventPublisherAware.class, ResourceLoaderAware.class,
+			MessageSourceAware.class, EmbeddedValueResolverAware.class, LoadTimeWeaverAware.class,
+			ServletContextAware.class};
+
+	private final MockAliasRegistry registry;
+	private final boolean directDispatch = Boolean.getBoolean(DIRECT_DISPATCH_PROPERTY);
+	private ContextLoadProfiler profiler;
+
+	public MockingAliasingCglibSubclassingInstantiationStrategy(MockAliasRegistry registry) {
+		this.registry = registry;
+	}
+
+	public void setProfiler(ContextLoadProfiler profiler) {
+		this.profiler = profiler;
+	}
+
+	public static Object createProxy(Class beanClass, TargetSource targetSource) {
 		ProxyFactory proxyFactory = new ProxyFactory();
 		ClassLoader proxyClassLoader = ClassUtils.getDefaultClassLoader();
 
-		Class[] targetInterfaces = ClassUtils.getAllInterfacesForClass(beanClass, proxyClassLoader);
+		Class[] targetInterfaces = getProxyInterfaces(beanClass, proxyClassLoader);
 		for (Class targetInterface : targetInterfaces) {
 			proxyFactory.addInterface(targetInterface);
 		}
@@ -46,49 +83,60 @@ public class MockingAliasingCglibSubclassingInstantiationStrategy extends CglibS
 		return proxyFactory.getProxy(proxyClassLoader);
 	}
 
-	public static SimpleBeanTargetSource createTargetSource(
-			String targetBeanName, Class mockingClass, BeanFactory beanFactory) {
-		SimpleBeanTargetSource targetSource = new SimpleBeanTargetSource();
-		targetSource.setTargetBeanName(targetBeanName);
-		targetSource.setTargetClass(mockingClass);
-		targetSource.setBeanFactory(beanFactory);
-		return targetSource;
+	/**
+	 * @return the interfaces of a bean class that its proxy implements, all but the lifecycle and aware interfaces
+	 */
+	public static Class[] getProxyInterfaces(Class beanClass, ClassLoader classLoader) {
+		List<Class> interfaces = new ArrayList<Class>();
+		for (Class beanInterface : ClassUtils.getAllInterfacesForClass(beanClass, classLoader)) {
+			if (!isCallbackInterface(beanInterface)) {
+				interfaces.add(beanInterface);
+			}
+		}
+		return interfaces.toArray(new Class[interfaces.size()]);
 	}
 
-	private void modifyProxy(BeanFactory owner, Object object,
-							 BeanDefinition beanDefinition, String mockBeanName) {
-		// Check if we have a proxy already in the cache
-		if (object instanceof Advised) {
-			Advised advised = (Advised) object;
-			// Find and set a new target source
-			SimpleBeanTargetSource newTargetSource = MockingAliasingCglibSubclassingInstantiationStrategy.
-					createTargetSource(mockBeanName, beanDefinition.getClass(), owner);
-			advised.setTargetSource(newTargetSource);
+	private static boolean isCallbackInterface(Class beanInterface) {
+		for (Class callbackInterface : CALLBACK_INTERFACES) {
+			if (callbackInterface.isAssignableFrom(beanInterface)) {
+				return true;
+			}
 		}
+		return false;
 	}
 
 	private Object getProxyObject(RootBeanDefinition beanDefinition, String beanName, BeanFactory owner,
 								  Constructor ctor, Object factoryBean, Method factoryMethod, Object[] args) {
 
-		DefaultListableBeanFactory beanFactory = (DefaultListableBeanFactory) owner;
-		MockingClassLoader.setBeanFactory(beanFactory);
-
 		Class beanClass = beanDefinition.getBeanClass();
 		Object proxy;
-		String actualTargetBeanName = beanName + "_actual";
+		long start = this.profiler != null ? this.profiler.start() : 0;
 
 		// If we should be mocked, create one more proxy on top of old proxy
-		String mockBeanName = MockingClassLoader.peekMockNameFromStack(beanName);
+		String mockBeanName = this.registry.peekMockNameFromStack(beanName);
 		if (mockBeanName != null) {
 			// Create a proxy with the original name
 			log.debug("Found mock configuration for bean: " + beanName + " -> " + mockBeanName +
 					"(" + beanDefinition.getBeanClassName() + ")");
-			proxy = createProxy(beanClass, actualTargetBeanName, beanClass, owner);
+			MockRoutingTargetSource targetSource = this.registry.createRoutingTargetSource(beanName, beanClass);
+			if (this.directDispatch) {
+				ClassLoader proxyClassLoader = ClassUtils.getDefaultClassLoader();
+				proxy = DirectDispatchInvocationHandler.createProxy(
+						getProxyInterfaces(beanClass, proxyClassLoader), targetSource, proxyClassLoader);
+			} else {
+				proxy = createProxy(beanClass, targetSource);
+			}
 		} else {
 			log.debug("Instantiating bean: " + beanName + " -> " + beanDefinition.getBeanClassName());
 			proxy = this.instantiate(beanDefinition, beanName, owner,
 					ctor, factoryBean, factoryMethod, args);
 		}
+		if (this.profiler != null) {
+			if (mockBeanName != null) {
+				this.profiler.markProxied(beanName);
+			}
+			this.profiler.end(ContextLoadProfiler.CATEGORY_INSTANTIATE, beanName, start);
+		}
 		return proxy;
 	}
 
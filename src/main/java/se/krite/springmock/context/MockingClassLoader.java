@@ -3,24 +3,23 @@ package se.krite.springmock.context;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.aop.framework.Advised;
-import org.springframework.aop.target.SimpleBeanTargetSource;
-import org.springframework.beans.factory.config.BeanDefinition;
-import org.springframework.beans.factory.config.BeanDefinitionHolder;
-import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
-import org.springframework.beans.factory.support.DefaultListableBeanFactory;
 import org.springframework.core.annotation.AnnotationUtils;
 import org.springframework.test.context.TestContext;
+import org.springframework.util.ClassUtils;
 import org.springframework.util.ReflectionUtils;
+import se.krite.springmock.context.index.MockResourceIndex;
 
-import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.util.*;
 
 /**
- * A utility class that harvests all classes and their annotations from a given folder.
- * It holds the actual annotation configuration for the mocking framework.
+ * A utility class that harvests all classes and their annotations from a given folder or jar.
+ * The harvested annotation configuration is kept once per class loader, and is registered in the
+ * {@link MockAliasRegistry} of every context loaded by TestContextLoader.
+ * The static test context methods apply the mocks of the current test to the registry of its context.
  *
  * @author kristoffer.teuber
  */
@@ -32,57 +31,45 @@ public class MockingClassLoader {
 	private static final Logger log = LoggerFactory.getLogger(MockingClassLoader.class);
 	private static final String BEAN_NAME_RESTORE_TO_DEFAULT = "_mock_resource_restore_bean_to_default_";
 
-	private static volatile boolean classesInitialized = false;
-	private static Map<String, Set<Class<?>>> beanNameMockedAtClassLevel = new HashMap<String, Set<Class<?>>>();
-	private static final Map<String, Stack<String>> aliasMap = new HashMap<String, Stack<String>>();
-	private static DefaultListableBeanFactory beanFactory;
-
-	private static String getBasePathFromObjectInstanceByNamedPackage(Object object, String breakAtPackage) {
-		Class cls = object.getClass();
-		String className = cls.getName().concat(".class");
-		Package pck = cls.getPackage();
-		String packageName;
-		if (pck != null) {
-			packageName = pck.getName();
-			if (className.startsWith(packageName)) {
-				className = className.substring(packageName.length() + 1);
-			}
+	// Set this system property to true to only register the beans mocked by the test classes that are run,
+	// instead of all beans mocked by any test class on the class path
+	public static final String SELECTED_CLASSES_ONLY_PROPERTY = "springmock.registration.selectedOnly";
+
+	private static final boolean selectedClassesOnly = Boolean.getBoolean(SELECTED_CLASSES_ONLY_PROPERTY);
+
+	private static final Map<ClassLoader, MockResourceIndex> indexByClassLoader =
+			new WeakHashMap<ClassLoader, MockResourceIndex>();
+	// The plans refer to the methods of their test class, so they are held softly to let the test classes
+	// (and their class loaders) be collected
+	private static final Map<Class<?>, SoftReference<MockPlan>> planByTestClass =
+			new WeakHashMap<Class<?>, SoftReference<MockPlan>>();
+
+	private static String getBaseUrlFromObjectInstanceByNamedPackage(Class<?> cls, String breakAtPackage) {
+		String classResourcePath = ClassUtils.convertClassNameToResourcePath(cls.getName()) + ClassUtils.CLASS_FILE_SUFFIX;
+		URL url = cls.getClassLoader().getResource(classResourcePath);
+		String classUrl = url.toExternalForm();
+		String packagePath = ClassUtils.convertClassNameToResourcePath(breakAtPackage);
+		if (classUrl.contains(packagePath)) {
+			return StringUtils.substringBefore(classUrl, packagePath);
 		}
-		URL url = cls.getResource(className);
-		String classFilePath = url.getPath().substring(1);
-		classFilePath = classFilePath.replaceAll("%20", " ");
-		return StringUtils.substringBefore(classFilePath, breakAtPackage.replaceAll("\\.", "/"));
+		return StringUtils.substringBeforeLast(classUrl, classResourcePath);
 	}
 
-	private static List<Class> findClasses(File directory, String packageName) throws ClassNotFoundException {
+	private static List<Class> findClasses(String baseUrl, ClassLoader classLoader)
+			throws IOException, ClassNotFoundException {
+		MockingTestClassScanner scanner = new MockingTestClassScanner(classLoader);
 		List<Class> classes = new ArrayList<Class>();
-		if (!directory.exists()) {
-			return classes;
-		}
-		File[] files = directory.listFiles();
-		for (File file : files) {
-			if (packageName != null && packageName.trim().length() > 0 && !packageName.endsWith(".")) {
-				packageName += ".";
-			}
-			if (file.isDirectory()) {
-				classes.addAll(findClasses(file, packageName + file.getName()));
-			} else if (file.getName().endsWith(".class")) {
-				String fileName = StringUtils.substringBefore(file.getName(), ".class");
-				if (fileName.endsWith("Test")) {
-					String className = packageName + StringUtils.substringBefore(file.getName(), ".class");
-					log.debug("Found test class to load: " + className);
-					classes.add(Class.forName(className));
-				}
-			}
+		for (String className : scanner.findMockingAnnotatedClassNames(baseUrl)) {
+			classes.add(Class.forName(className, false, classLoader));
 		}
 		return classes;
 	}
 
-	private static Class[] getAllClassesFromObjectInstanceByNamedPackage(Object object, String breakAtPackage) {
-		String basePath = getBasePathFromObjectInstanceByNamedPackage(object, breakAtPackage);
-		log.debug("Starting to scan test classes from base path: " + basePath);
+	private static Class[] getAllClassesFromObjectInstanceByNamedPackage(Class<?> cls, String breakAtPackage) {
+		String baseUrl = getBaseUrlFromObjectInstanceByNamedPackage(cls, breakAtPackage);
+		log.debug("Starting to scan test classes from base url: " + baseUrl);
 		try {
-			List<Class> classes = findClasses(new File(basePath), "");
+			List<Class> classes = findClasses(baseUrl, cls.getClassLoader());
 			return classes.toArray(new Class[classes.size()]);
 		} catch (Throwable t) {
 			log.error("Could not load classes!", t);
@@ -90,241 +77,274 @@ public class MockingClassLoader {
 		return null;
 	}
 
-	private static void loadClassesByInstance(Object testClassObject) {
-		log.debug("Finding test classes based on class: " + testClassObject.getClass().getName() +
+	private static void loadClassesByInstance(Class<?> testClass, MockResourceIndex index) {
+		log.debug("Finding test classes based on class: " + testClass.getName() +
 				" and base package: " + basePackage);
-		Class[] classes = getAllClassesFromObjectInstanceByNamedPackage(testClassObject, basePackage);
+		Class[] classes = getAllClassesFromObjectInstanceByNamedPackage(testClass, basePackage);
 		if (classes == null) {
 			log.error("Could not load classes, se previous error...");
 			return;
 		}
 		for (Class clazz : classes) {
-			List<MockResource> resources = new ArrayList<MockResource>();
-			MockResource mockResource = AnnotationUtils.findAnnotation(clazz, MockResource.class);
-			if (mockResource != null) {
-				resources.add(mockResource);
-			}
-			MockResources mockResources = AnnotationUtils.findAnnotation(clazz, MockResources.class);
-			if (mockResources != null && mockResources.value() != null && mockResources.value().length > 0) {
-				resources.addAll(Arrays.asList(mockResources.value()));
-			}
+			addIndexEntries(index, clazz);
+		}
+	}
 
-			// All beans that has a alias defined at class level, will not be reset to its original impl
-			for (MockResource resetResource : resources) {
-				addClassToClassLevelMockingForBean(resetResource.beanName(), clazz);
-			}
+	private static void addIndexEntries(MockResourceIndex index, Class<?> clazz) {
+		// All beans that has a alias defined at class level, will not be reset to its original impl
+		for (MockResource resource : findMockResources(clazz)) {
+			addIndexEntry(index, resource, clazz, null);
+		}
 
-			// At class level, add bean to mocking map for our instantiation strategy to find,
-			// or we will not get a correct proxy
-			for (Method initMethod : ReflectionUtils.getAllDeclaredMethods(clazz)) {
-				if (initMethod != null) {
-					mockResources = AnnotationUtils.findAnnotation(
-							initMethod, MockResources.class);
-					mockResource = AnnotationUtils.findAnnotation(
-							initMethod, MockResource.class);
-					if (mockResource != null) {
-						resources.add(mockResource);
-					}
-					if (mockResources != null && mockResources.value() != null && mockResources.value().length > 0) {
-						resources.addAll(Arrays.asList(mockResources.value()));
-					}
+		// At class level, add bean to mocking map for our instantiation strategy to find,
+		// or we will not get a correct proxy
+		for (Method initMethod : ReflectionUtils.getAllDeclaredMethods(clazz)) {
+			if (initMethod != null) {
+				for (MockResource resource : findMockResources(initMethod)) {
+					addIndexEntry(index, resource, clazz, initMethod.getName());
 				}
 			}
-
-			// Initialize all stacks with original instance
-			for (MockResource initResource : resources) {
-				pushMockBeanNameOntoStack(initResource.beanName(), null);
-			}
 		}
 	}
 
-	public static void registerAliases(TestContext testContext) throws Exception {
-		synchronized (aliasMap) {
-			if (classesInitialized) {
-				log.debug("Classes already loaded...");
-				return;
-			}
-			Object bean = testContext.getTestInstance();
-			loadClassesByInstance(bean);
-			classesInitialized = true;
-		}
+	private static void addIndexEntry(MockResourceIndex index, MockResource resource, Class clazz, String methodName) {
+		index.add(new MockResourceIndex.Entry(resource.beanName(), resource.mockBeanName(),
+				resource.restoreToOriginal(), clazz.getName(), methodName));
 	}
 
-	public static void modifyMockingProxies(TestContext testContext) {
-		Object testClassObject = testContext.getTestInstance();
-		Method method = testContext.getTestMethod();
-
+	private static List<MockResource> findMockResources(Class<?> clazz) {
 		List<MockResource> resources = new ArrayList<MockResource>();
-		MockResources mockResources;
-		if (method != null) {
-			MockResource resource;
-			mockResources = AnnotationUtils.findAnnotation(
-					method, MockResources.class);
-			resource = AnnotationUtils.findAnnotation(
-					method, MockResource.class);
-			if (resource != null) {
-				resources.add(resource);
-			}
-			if (mockResources != null && mockResources.value() != null && mockResources.value().length > 0) {
-				resources.addAll(Arrays.asList(mockResources.value()));
-			}
-
-		} else if (testClassObject != null) {
-			Class clazz = testClassObject.getClass();
-			MockResource resource;
-			mockResources = AnnotationUtils.findAnnotation(clazz, MockResources.class);
-			resource = AnnotationUtils.findAnnotation(clazz, MockResource.class);
-			if (resource != null) {
-				resources.add(resource);
-			}
-			if (mockResources != null && mockResources.value() != null && mockResources.value().length > 0) {
-				resources.addAll(Arrays.asList(mockResources.value()));
-			}
+		MockResource mockResource = AnnotationUtils.findAnnotation(clazz, MockResource.class);
+		if (mockResource != null) {
+			resources.add(mockResource);
+		}
+		MockResources mockResources = AnnotationUtils.findAnnotation(clazz, MockResources.class);
+		if (mockResources != null && mockResources.value() != null && mockResources.value().length > 0) {
+			resources.addAll(Arrays.asList(mockResources.value()));
+		}
+		return resources;
+	}
 
-			/*
-			// All beans that has a alias defined at class level, will not be reset to its original impl
-			for (MockResource resetResource : resources) {
-				beanNameMockedAtClassLevel.put(resetResource.beanName(), testClassObject.getClass());
-			}
-			*/
+	private static List<MockResource> findMockResources(Method method) {
+		List<MockResource> resources = new ArrayList<MockResource>();
+		MockResource mockResource = AnnotationUtils.findAnnotation(method, MockResource.class);
+		if (mockResource != null) {
+			resources.add(mockResource);
+		}
+		MockResources mockResources = AnnotationUtils.findAnnotation(method, MockResources.class);
+		if (mockResources != null && mockResources.value() != null && mockResources.value().length > 0) {
+			resources.addAll(Arrays.asList(mockResources.value()));
+		}
+		return resources;
+	}
 
-			// At class level, add bean to mocking map for our instantiation strategy to find,
-			// or we will not get a correct proxy
-			for (Method initMethod : ReflectionUtils.getAllDeclaredMethods(clazz)) {
-				List<MockResource> initResources = new ArrayList<MockResource>();
-				if (initMethod != null) {
-					mockResources = AnnotationUtils.findAnnotation(
-							initMethod, MockResources.class);
-					resource = AnnotationUtils.findAnnotation(
-							initMethod, MockResource.class);
-					if (resource != null) {
-						initResources.add(resource);
-					}
-					if (mockResources != null && mockResources.value() != null && mockResources.value().length > 0) {
-						initResources.addAll(Arrays.asList(mockResources.value()));
-					}
-					for (MockResource initResource : initResources) {
-						pushMockBeanNameOntoStack(initResource.beanName(), null);
+	/**
+	 * Returns the mocking configuration of all test classes visible to the class loader of the test class.
+	 * Uses the precomputed indexes of the class path roots that were compiled with the index processor.
+	 * If the location of the given test class has no index, its test classes are scanned once as well.
+	 */
+	public static MockResourceIndex getMockResourceIndex(Class<?> testClass) {
+		ClassLoader classLoader = testClass != null ? testClass.getClassLoader() : ClassUtils.getDefaultClassLoader();
+		synchronized (indexByClassLoader) {
+			MockResourceIndex index = indexByClassLoader.get(classLoader);
+			if (index == null) {
+				index = MockResourceIndex.load(classLoader);
+				if (index == null) {
+					index = new MockResourceIndex();
+				}
+				if (testClass != null) {
+					// An index of another root, such as a test jar of a dependency, does not cover this one
+					if (!index.getIndexedRoots().contains(getBaseUrlFromObjectInstanceByNamedPackage(testClass,
+							basePackage))) {
+						loadClassesByInstance(testClass, index);
 					}
+				} else if (index.getIndexedRoots().isEmpty()) {
+					log.warn("No mock resource index found and no test class to scan from, no beans will be mockable");
 				}
+				indexByClassLoader.put(classLoader, index);
 			}
+			return index;
 		}
+	}
 
+	public static boolean isSelectedClassesOnly() {
+		return selectedClassesOnly;
+	}
 
-		for (MockResource resource : resources) {
-			// Fill up map of aliases
-			// Override if it exists, create otherwise
-			String beanName = resource.beanName();
-			String mockBeanName;
-			if (resource.restoreToOriginal()) {
-				mockBeanName = beanName + "_actual";
-			} else {
-				mockBeanName = resource.mockBeanName();
-			}
-			pushMockBeanNameOntoStack(resource.beanName(), mockBeanName);
-
-			if (beanFactory == null) {
-				continue;
-			}
-			if (beanName.equals(mockBeanName)) {
-				continue;
-			}
-			modifyProxy(beanName, mockBeanName);
+	/**
+	 * Registers the mocking configuration of all test classes in the registry of a new context,
+	 * or only the configuration of the given test class if only selected classes should be registered
+	 */
+	public static void registerAliases(MockAliasRegistry registry, Class<?> testClass) {
+		if (selectedClassesOnly && testClass != null) {
+			registry.registerAll(getTestClassIndex(testClass));
+		} else {
+			registry.registerAll(getMockResourceIndex(testClass));
 		}
 	}
 
-	public static void modifyProxy(String beanName, String mockBeanName) {
-		// Check if we have a proxy already in the cache
-		Object object = beanFactory.getBean(beanName);
-		if (object instanceof Advised) {
-			Advised advised = (Advised) object;
-			BeanDefinition beanDefinition = beanFactory.getBeanDefinition(mockBeanName);
-			SimpleBeanTargetSource newTargetSource = MockingAliasingCglibSubclassingInstantiationStrategy.
-					createTargetSource(mockBeanName, beanDefinition.getClass(), beanFactory);
-			advised.setTargetSource(newTargetSource);
-		}
+	private static MockResourceIndex getTestClassIndex(Class<?> testClass) {
+		MockResourceIndex index = new MockResourceIndex();
+		addIndexEntries(index, testClass);
+		return index;
 	}
 
-	private static void addClassToClassLevelMockingForBean(String beanName, Class<?> clazz) {
-		Set<Class<?>> classes = beanNameMockedAtClassLevel.get(beanName);
-		if (classes == null) {
-			classes = new HashSet<Class<?>>();
-			beanNameMockedAtClassLevel.put(beanName, classes);
+	/**
+	 * Registers the mocking configuration of a test class that runs on a context loaded for another test class,
+	 * if only selected classes are registered. Beans that are not mockable yet are proxied when first created.
+	 *
+	 * @return false if a bean the test class mocks has already been created without a proxy, or is defined in a
+	 *         parent context, so the test class cannot run on this context
+	 */
+	public static boolean registerTestClass(TestContext testContext) {
+		if (!selectedClassesOnly) {
+			return true;
 		}
-		classes.add(clazz);
+		MockAliasRegistry registry = MockAliasRegistry.getRegistry(testContext.getApplicationContext());
+		return registry == null || registry.registerLate(getTestClassIndex(testContext.getTestClass()));
 	}
 
-	public static void pushMockBeanNameOntoStack(String beanName, String mockBeanName) {
-		Stack<String> stack = aliasMap.get(beanName);
-		if (stack == null) {
-			stack = new Stack<String>();
-			aliasMap.put(beanName, stack);
-			// Push original to stack first
-			stack.push(beanName + "_actual");
-			log.debug("Initialized alias for bean: " + beanName);
+	/**
+	 * Returns the mock plan of a test class, resolving its annotations on first use
+	 */
+	public static MockPlan getMockPlan(Class<?> testClass) {
+		synchronized (planByTestClass) {
+			SoftReference<MockPlan> reference = planByTestClass.get(testClass);
+			MockPlan plan = reference != null ? reference.get() : null;
+			if (plan == null) {
+				plan = createMockPlan(testClass);
+				planByTestClass.put(testClass, new SoftReference<MockPlan>(plan));
+			}
+			return plan;
 		}
-		if (mockBeanName != null) {
-			stack.push(mockBeanName);
-			log.debug("Pushed mocking alias for bean: " + beanName + " -> " + mockBeanName);
+	}
+
+	/**
+	 * @return a snapshot of the mock plans resolved so far that are still held, keyed by test class name
+	 */
+	public static Map<String, MockPlan> getMockPlans() {
+		Map<String, MockPlan> plans = new TreeMap<String, MockPlan>();
+		synchronized (planByTestClass) {
+			for (SoftReference<MockPlan> reference : planByTestClass.values()) {
+				MockPlan plan = reference.get();
+				if (plan != null) {
+					plans.put(plan.getTestClassName(), plan);
+				}
+			}
 		}
+		return plans;
 	}
 
-	public static void resetAllProxiesToDefaultValues(TestContext testContext) {
-		if (beanFactory == null) {
-			return;
+	private static MockPlan createMockPlan(Class<?> testClass) {
+		List<MockPlan.MockOverride> classOverrides = new ArrayList<MockPlan.MockOverride>();
+		for (MockResource resource : findMockResources(testClass)) {
+			classOverrides.add(MockPlan.MockOverride.fromResource(resource));
 		}
-		Class<?> testClass = testContext.getTestClass();
-		log.debug("Resetting all proxies to default mocking values (if any)...");
-		for (String beanName : aliasMap.keySet()) {
-			Stack<String> stack = aliasMap.get(beanName);
-			if (stack != null) {
-				// Pop stack of impl down to original or mocked impl depending upon
-				// class level annotation
-				int popToLimit = 2;
-				Set<Class<?>> beanMockedForClasses = beanNameMockedAtClassLevel.get(beanName);
-				if (beanMockedForClasses == null || !beanMockedForClasses.contains(testClass)) {
-					popToLimit = 1;
-				}
-				while (stack.size() > popToLimit) {
-					stack.pop();
-				}
-				String mockBeanName = stack.peek();
-				if (mockBeanName != null) {
-					log.debug("Resetting bean: " + beanName + " -> " + mockBeanName);
-					modifyProxy(beanName, mockBeanName);
-				}
+		Map<Method, List<MockPlan.MockOverride>> methodOverrides = new LinkedHashMap<Method, List<MockPlan.MockOverride>>();
+		for (Method method : ReflectionUtils.getAllDeclaredMethods(testClass)) {
+			if (method == null) {
+				continue;
+			}
+			List<MockPlan.MockOverride> overrides = new ArrayList<MockPlan.MockOverride>();
+			for (MockResource resource : findMockResources(method)) {
+				overrides.add(MockPlan.MockOverride.fromResource(resource));
+			}
+			if (!overrides.isEmpty()) {
+				methodOverrides.put(method, overrides);
 			}
 		}
-		log.debug("Done resetting proxies!");
+		MockPlan plan = new MockPlan(testClass.getName(), classOverrides, methodOverrides);
+		log.debug("Resolved " + plan);
+		return plan;
 	}
 
-	// Public static accessors
+	/**
+	 * Applies the overrides of the current test method, or the class level overrides before the first method
+	 *
+	 * @return the number of proxies that were changed
+	 */
+	public static int modifyMockingProxies(TestContext testContext) {
+		MockAliasRegistry registry = MockAliasRegistry.getRegistry(testContext.getApplicationContext());
+		if (registry == null) {
+			return 0;
+		}
+		Object testClassObject = testContext.getTestInstance();
+		Method method = testContext.getTestMethod();
+		if (method != null) {
+			return modifyMockingProxies(registry, getMockPlan(testContext.getTestClass()), method);
+		} else if (testClassObject != null) {
+			return modifyMockingProxies(registry, getMockPlan(testClassObject.getClass()), null);
+		}
+		return 0;
+	}
 
-	public static String peekMockNameFromStack(String beanName) {
-		Stack<String> stack = aliasMap.get(beanName);
-		if (stack == null) {
-			return null;
+	/**
+	 * Applies the class level overrides of the test class, to the route of the current thread if there is one
+	 *
+	 * @return the number of proxies that were changed
+	 */
+	public static int modifyClassMockingProxies(TestContext testContext) {
+		MockAliasRegistry registry = MockAliasRegistry.getRegistry(testContext.getApplicationContext());
+		if (registry == null) {
+			return 0;
 		}
-		String mockBeanName = stack.peek();
-		log.debug("Peeked mocking alias for bean: " + beanName + " -> " + mockBeanName);
-		return mockBeanName;
+		return modifyMockingProxies(registry, getMockPlan(testContext.getTestClass()), null);
 	}
 
-	public static List<BeanDefinitionHolder> getActualImplementationBeans(ConfigurableListableBeanFactory beanFactory) {
-		List<BeanDefinitionHolder> holders = new ArrayList<BeanDefinitionHolder>();
-		for (String beanName : aliasMap.keySet()) {
-			Stack<String> stack = aliasMap.get(beanName);
-			if (stack != null) {
-				BeanDefinition original = beanFactory.getBeanDefinition(beanName);
-				if (original != null) {
-					holders.add(new BeanDefinitionHolder(original, stack.firstElement()));
-				}
+	/**
+	 * Applies the overrides of a test method, or the class level overrides if the method is null
+	 *
+	 * @return the number of proxies that were changed
+	 */
+	public static int modifyMockingProxies(MockAliasRegistry registry, MockPlan plan, Method method) {
+		List<MockPlan.MockOverride> overrides;
+		if (method != null) {
+			overrides = plan.getMethodOverrides(method);
+
+		} else {
+			overrides = plan.getClassOverrides();
+
+			// At class level, add bean to mocking map for our instantiation strategy to find,
+			// or we will not get a correct proxy
+			for (String beanName : plan.getMethodLevelBeanNames()) {
+				registry.pushMockBeanNameOntoStack(beanName, null);
+			}
+		}
+
+		int modified = 0;
+		for (MockPlan.MockOverride override : overrides) {
+			// Fill up map of aliases
+			// Override if it exists, create otherwise
+			registry.pushMockBeanNameOntoStack(override.getBeanName(), override.getMockBeanName());
+			if (override.isProxyChange() && registry.modifyProxy(override.getBeanName(), override.getMockBeanName())) {
+				modified++;
 			}
 		}
-		return holders;
+		return modified;
 	}
 
-	public static void setBeanFactory(DefaultListableBeanFactory factory) {
-		beanFactory = factory;
+	/**
+	 * Drops all mocks of the route of the current thread, if per thread routing is enabled
+	 */
+	public static void closeRoute(TestContext testContext) {
+		Object routingKey = MockRoutingContext.closeRoute();
+		MockAliasRegistry registry = MockAliasRegistry.getRegistry(testContext.getApplicationContext());
+		if (registry != null) {
+			registry.clearRoute(routingKey);
+		}
+	}
+
+	/**
+	 * @return the number of proxies that were changed
+	 */
+	public static int resetAllProxiesToDefaultValues(TestContext testContext) {
+		MockAliasRegistry registry = MockAliasRegistry.getRegistry(testContext.getApplicationContext());
+		if (registry == null) {
+			return 0;
+		}
+		log.debug("Resetting all proxies to default mocking values (if any)...");
+		int modified = registry.resetToDefaults(testContext.getTestClass().getName());
+		log.debug("Done resetting proxies! Changed " + modified + " proxies");
+		return modified;
 	}
 }
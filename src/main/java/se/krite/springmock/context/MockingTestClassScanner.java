@@ -0,0 +1,200 @@
+package se.krite.springmock.context;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.core.type.AnnotationMetadata;
+import org.springframework.core.type.classreading.CachingMetadataReaderFactory;
+import org.springframework.core.type.classreading.MetadataReader;
+import org.springframework.core.type.classreading.MetadataReaderFactory;
+import org.springframework.core.type.classreading.SimpleMetadataReaderFactory;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ResourceUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Finds all *Test classes below a class path root that carry a mocking annotation, by reading their
+ * byte code instead of loading them.
+ * Class folders are walked in parallel, one task per directory, on a bounded pool of daemon threads.
+ * Jar files are scanned sequentially through spring's resource pattern resolver.
+ *
+ * @author kristoffer.teuber
+ */
+public class MockingTestClassScanner {
+
+	// Number of threads used to walk class folders, defaults to the number of processors
+	public static final String SCAN_THREADS_PROPERTY = "springmock.scan.threads";
+
+	private static final Logger log = LoggerFactory.getLogger(MockingTestClassScanner.class);
+	private static final String TEST_CLASS_SUFFIX = "Test" + ClassUtils.CLASS_FILE_SUFFIX;
+	private static final String[] MOCKING_ANNOTATION_TYPES =
+			new String[]{MockResource.class.getName(), MockResources.class.getName()};
+
+	private final ResourcePatternResolver resolver;
+	// Used for super type lookups, which are shared between many test classes
+	private final MetadataReaderFactory superTypeReaderFactory;
+	// Test classes are read exactly once, so there is no use in caching (and locking) them
+	private final MetadataReaderFactory testClassReaderFactory;
+
+	public MockingTestClassScanner(ClassLoader classLoader) {
+		this.resolver = new PathMatchingResourcePatternResolver(classLoader);
+		this.superTypeReaderFactory = new CachingMetadataReaderFactory(this.resolver);
+		this.testClassReaderFactory = new SimpleMetadataReaderFactory(this.resolver);
+	}
+
+	/**
+	 * @param baseUrl url of a class folder or a jar root, ending with a slash
+	 * @return names of all mocking annotated test classes
+	 */
+	public Collection<String> findMockingAnnotatedClassNames(String baseUrl) throws IOException {
+		URL url = new URL(baseUrl);
+		if (ResourceUtils.isFileURL(url)) {
+			File directory = ResourceUtils.getFile(url);
+			if (directory.isDirectory()) {
+				return this.scanDirectory(directory);
+			}
+		}
+		return this.scanResources(baseUrl);
+	}
+
+	private Collection<String> scanResources(String baseUrl) throws IOException {
+		List<String> classNames = new ArrayList<String>();
+		for (Resource resource : this.resolver.getResources(baseUrl + "**/*" + TEST_CLASS_SUFFIX)) {
+			String className = this.getClassNameIfMockingAnnotated(resource);
+			if (className != null) {
+				classNames.add(className);
+			}
+		}
+		return classNames;
+	}
+
+	private Collection<String> scanDirectory(File directory) throws IOException {
+		int threads = Integer.getInteger(SCAN_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "mocking-test-class-scanner-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			DirectoryWalk walk = new DirectoryWalk(executor);
+			walk.submit(directory);
+			return walk.await();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private String getClassNameIfMockingAnnotated(Resource resource) throws IOException {
+		MetadataReader metadataReader = this.testClassReaderFactory.getMetadataReader(resource);
+		if (this.isMockingAnnotated(metadataReader)) {
+			return metadataReader.getClassMetadata().getClassName();
+		}
+		return null;
+	}
+
+	private boolean isMockingAnnotated(MetadataReader metadataReader) throws IOException {
+		AnnotationMetadata metadata = metadataReader.getAnnotationMetadata();
+		for (String annotationType : MOCKING_ANNOTATION_TYPES) {
+			if (metadata.hasAnnotation(annotationType) || metadata.hasAnnotatedMethods(annotationType)) {
+				return true;
+			}
+		}
+		// Annotations may be inherited from super classes and interfaces, as found by AnnotationUtils
+		List<String> superTypeNames = new ArrayList<String>(Arrays.asList(metadata.getInterfaceNames()));
+		if (metadata.hasSuperClass()) {
+			superTypeNames.add(metadata.getSuperClassName());
+		}
+		for (String superTypeName : superTypeNames) {
+			if (superTypeName.startsWith("java.")) {
+				continue;
+			}
+			try {
+				if (this.isMockingAnnotated(this.superTypeReaderFactory.getMetadataReader(superTypeName))) {
+					return true;
+				}
+			} catch (IOException e) {
+				log.debug("Could not read super type: " + superTypeName + ", ignoring it");
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * A parallel walk of a directory tree. Every sub directory is submitted as its own task, and all
+	 * matching class names are collected in one concurrent queue.
+	 */
+	private class DirectoryWalk {
+		private final ExecutorService executor;
+		private final Queue<String> classNames = new ConcurrentLinkedQueue<String>();
+		private final AtomicInteger pendingTasks = new AtomicInteger();
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile Throwable failure;
+
+		private DirectoryWalk(ExecutorService executor) {
+			this.executor = executor;
+		}
+
+		private void submit(final File directory) {
+			this.pendingTasks.incrementAndGet();
+			this.executor.execute(new Runnable() {
+				public void run() {
+					try {
+						walk(directory);
+					} catch (Throwable t) {
+						failure = t;
+						done.countDown();
+					} finally {
+						if (pendingTasks.decrementAndGet() == 0) {
+							done.countDown();
+						}
+					}
+				}
+			});
+		}
+
+		private void walk(File directory) throws IOException {
+			File[] files = directory.listFiles();
+			if (files == null) {
+				return;
+			}
+			for (File file : files) {
+				String fileName = file.getName();
+				if (fileName.endsWith(TEST_CLASS_SUFFIX)) {
+					String className = getClassNameIfMockingAnnotated(new FileSystemResource(file));
+					if (className != null) {
+						log.debug("Found test class to load: " + className);
+						this.classNames.add(className);
+					}
+				} else if (fileName.indexOf('.') < 0 && file.isDirectory()) {
+					this.submit(file);
+				}
+			}
+		}
+
+		private Collection<String> await() throws IOException {
+			try {
+				this.done.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while scanning test classes");
+			}
+			if (this.failure != null) {
+				throw new IOException("Could not scan test classes", this.failure);
+			}
+			return this.classNames;
+		}
+	}
+}
@@ -61,7 +61,17 @@ public class MyTestContextLoader extends TestContextLoader {
 		return filePath;
 	}
 
-	public String[] processLocations(Class<?> clazz, String... locations) {
+	@Override
+	protected String[] getSharedParentLocations(String... locations) {
+		// Only the default locations are loaded by all test classes
+		String[] sharedLocations = new String[this.defaultLocations.length];
+		for (int i = 0; i < this.defaultLocations.length; i++)
+			sharedLocations[i] = this.getAbsoluteFilePath(this.defaultLocations[i]);
+		return sharedLocations;
+	}
+
+	@Override
+	protected String[] resolveLocations(Class<?> clazz, String... locations) {
 		int i = 0;
 		String[] finalLocations = new String[locations.length + this.defaultLocations.length];
 		for (String location : locations)
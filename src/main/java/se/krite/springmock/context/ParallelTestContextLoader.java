@@ -0,0 +1,251 @@
+package se.krite.springmock.context;
+
+import org.aopalliance.aop.Advice;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aop.Advisor;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.context.support.GenericApplicationContext;
+
+import java.lang.annotation.Annotation;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Context loader that creates independent singletons in parallel when the context is refreshed.
+ * After all bean factory post processors (including MockingAliasingBeanFactoryPostProcessor) have run, the
+ * dependencies of the singletons are found with a {@link BeanDependencyAnalysis}. Every singleton whose
+ * dependencies are known and can all be created this way is created on a bounded pool of daemon threads as soon
+ * as its dependencies exist, so independent subtrees (including the original implementations and the proxies of
+ * mockable beans) are created at the same time. All other singletons are then created by the factory as usual.
+ * <p/>
+ * Spring creates singletons while holding the lock of the singleton registry, so the parallel singletons are
+ * created outside of the registry and registered when they are complete. While they are created, Spring does not
+ * know they are in creation, so a bean looked up at runtime (not through its definition) while it is being created
+ * in parallel is created a second time. To keep this from happening with post processors, beans that post
+ * processors look up at runtime (advisors, advice and aspects of auto proxying) and beans of unknown type are
+ * always left to the factory. When a bean is created twice anyway, for example by an init method looking up a bean
+ * by name, the instance created in parallel is destroyed and the other one kept, so do not use this loader for
+ * contexts that depend on such lookups.
+ * <p/>
+ * Use it as the loader of @ContextConfiguration in place of TestContextLoader.
+ *
+ * @author kristoffer.teuber
+ */
+public class ParallelTestContextLoader extends TestContextLoader {
+
+	private static final String ASPECT_ANNOTATION_NAME = "org.aspectj.lang.annotation.Aspect";
+
+	// Number of threads used to create the singletons, defaults to the number of processors
+	public static final String THREADS_PROPERTY = "springmock.parallel.threads";
+
+	private static final Logger log = LoggerFactory.getLogger(ParallelTestContextLoader.class);
+
+	@Override
+	protected GenericApplicationContext createApplicationContext() {
+		int threads = Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+		return new GenericApplicationContext(new ParallelBeanFactory(Math.max(1, threads)));
+	}
+
+	/**
+	 * Bean factory creating the singletons with known dependencies in parallel, before the rest
+	 */
+	private static class ParallelBeanFactory extends DefaultListableBeanFactory {
+		private static final long serialVersionUID = 1L;
+
+		private final int threads;
+
+		private ParallelBeanFactory(int threads) {
+			this.threads = threads;
+		}
+
+		@Override
+		public void preInstantiateSingletons() throws BeansException {
+			if (this.threads > 1) {
+				long start = System.currentTimeMillis();
+				Map<String, Set<String>> singletons = this.findParallelSingletons();
+				this.createSingletons(singletons);
+				log.debug("Created " + singletons.size() + " singletons on " + this.threads + " threads in " +
+						(System.currentTimeMillis() - start) + " ms");
+			}
+			super.preInstantiateSingletons();
+		}
+
+		/**
+		 * @return the singletons that can be created in parallel, with their dependencies that do not exist yet
+		 */
+		private Map<String, Set<String>> findParallelSingletons() {
+			BeanDependencyAnalysis analysis = new BeanDependencyAnalysis(this, this.getBeanClassLoader());
+			Map<String, Set<String>> singletons = new LinkedHashMap<String, Set<String>>();
+			for (String beanName : this.getBeanDefinitionNames()) {
+				RootBeanDefinition beanDefinition = this.getMergedLocalBeanDefinition(beanName);
+				if (beanDefinition.isAbstract() || !beanDefinition.isSingleton() || beanDefinition.isLazyInit() ||
+						this.containsSingleton(beanName) || this.isFactoryBean(beanName, beanDefinition) ||
+						this.mayBeLookedUpAtRuntime(beanDefinition)) {
+					continue;
+				}
+				Set<String> dependencies = analysis.findDependencies(beanName);
+				if (dependencies == null) {
+					continue;
+				}
+				Set<String> missing = new HashSet<String>();
+				for (String dependency : dependencies) {
+					if (!this.containsSingleton(dependency)) {
+						missing.add(dependency);
+					}
+				}
+				singletons.put(beanName, missing);
+			}
+			// Beans depending on beans that are left to the factory are left to the factory as well
+			boolean changed = true;
+			while (changed) {
+				changed = false;
+				for (Iterator<Set<String>> i = singletons.values().iterator(); i.hasNext(); ) {
+					if (!singletons.keySet().containsAll(i.next())) {
+						i.remove();
+						changed = true;
+					}
+				}
+			}
+			return singletons;
+		}
+
+		/**
+		 * @return true for beans of unknown type, and beans that post processors look up while other beans are
+		 *         created
+		 */
+		private boolean mayBeLookedUpAtRuntime(RootBeanDefinition beanDefinition) {
+			if (beanDefinition.getFactoryMethodName() != null) {
+				return true;
+			}
+			Class<?> beanClass = BeanDependencyAnalysis.loadBeanClass(beanDefinition, this.getBeanClassLoader());
+			if (beanClass == null || Advisor.class.isAssignableFrom(beanClass) ||
+					Advice.class.isAssignableFrom(beanClass)) {
+				return true;
+			}
+			for (Annotation annotation : beanClass.getAnnotations()) {
+				if (ASPECT_ANNOTATION_NAME.equals(annotation.annotationType().getName())) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Creates every singleton once its dependencies have been created. Singletons in dependency cycles are
+		 * never ready, and are left to the factory.
+		 */
+		private void createSingletons(Map<String, Set<String>> singletons) {
+			Map<String, List<String>> dependents = new HashMap<String, List<String>>();
+			for (Map.Entry<String, Set<String>> entry : singletons.entrySet()) {
+				for (String dependency : entry.getValue()) {
+					List<String> beanNames = dependents.get(dependency);
+					if (beanNames == null) {
+						beanNames = new ArrayList<String>();
+						dependents.put(dependency, beanNames);
+					}
+					beanNames.add(entry.getKey());
+				}
+			}
+			ExecutorService executor = Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "parallel-test-context-loader-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			CompletionService<String> completionService = new ExecutorCompletionService<String>(executor);
+			int submitted = 0;
+			try {
+				for (Map.Entry<String, Set<String>> entry : singletons.entrySet()) {
+					if (entry.getValue().isEmpty()) {
+						completionService.submit(new CreateTask(entry.getKey()));
+						submitted++;
+					}
+				}
+				for (int completed = 0; completed < submitted; completed++) {
+					String beanName = completionService.take().get();
+					List<String> waiting = dependents.get(beanName);
+					if (waiting == null) {
+						continue;
+					}
+					for (String dependent : waiting) {
+						Set<String> missing = singletons.get(dependent);
+						missing.remove(beanName);
+						if (missing.isEmpty()) {
+							completionService.submit(new CreateTask(dependent));
+							submitted++;
+						}
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new BeanCreationException("Interrupted while creating singletons in parallel", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof BeansException) {
+					throw (BeansException) e.getCause();
+				}
+				throw new BeanCreationException("Could not create singletons in parallel", e.getCause());
+			} finally {
+				// Singletons still being created are completed before the factory continues, or is destroyed
+				executor.shutdown();
+				try {
+					executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new BeanCreationException("Interrupted while waiting for singletons created in parallel", e);
+				}
+			}
+		}
+
+		/**
+		 * Creates a singleton outside of the singleton registry lock, and registers it.
+		 * All dependencies of the bean exist already. If the bean was created by the factory in the meantime,
+		 * the instance created here is destroyed.
+		 */
+		private void createSingleton(String beanName) {
+			if (this.containsSingleton(beanName)) {
+				return;
+			}
+			RootBeanDefinition beanDefinition = this.getMergedLocalBeanDefinition(beanName);
+			this.markBeanAsCreated(beanName);
+			if (beanDefinition.getDependsOn() != null) {
+				for (String dependsOn : beanDefinition.getDependsOn()) {
+					this.getBean(dependsOn);
+					this.registerDependentBean(dependsOn, beanName);
+				}
+			}
+			Object bean = this.createBean(beanName, beanDefinition, null);
+			synchronized (this.getSingletonMutex()) {
+				if (!this.containsSingleton(beanName)) {
+					this.addSingleton(beanName, bean);
+					return;
+				}
+			}
+			log.warn("Singleton was looked up while it was created in parallel, destroying the second instance: " +
+					beanName);
+			this.destroyBean(beanName, bean);
+			// Creating the second instance registered it for destruction in place of the kept instance
+			this.registerDisposableBeanIfNecessary(beanName, this.getSingleton(beanName), beanDefinition);
+		}
+
+		private class CreateTask implements Callable<String> {
+			private final String beanName;
+
+			private CreateTask(String beanName) {
+				this.beanName = beanName;
+			}
+
+			public String call() {
+				createSingleton(this.beanName);
+				return this.beanName;
+			}
+		}
+	}
+}
@@ -0,0 +1,214 @@
+package se.krite.springmock.context;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.config.*;
+import org.springframework.beans.factory.support.*;
+import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
+import org.springframework.context.annotation.AnnotationConfigUtils;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.core.io.FileSystemResourceLoader;
+import se.krite.springmock.context.index.MockResourceIndex;
+
+import java.util.*;
+
+/**
+ * A parent context holding the beans of the shared locations (for MyTestContextLoader, the default
+ * applicationContextTest.xml and applicationContext-db.xml) that can never be mocked. It is built once per JVM
+ * for each set of shared locations and mockable beans, and every test context loaded by TestContextLoader
+ * then only creates the mockable beans, their mocks and the beans depending on them.
+ * <p/>
+ * A bean is shared if it is not mockable, is not a mock, and all of its dependencies are shared. Dependencies
+ * are the bean references of the definition and the @Resource, @Autowired and @Inject injection points of the
+ * bean class, where injection by type depends on every bean that may be of that type. Beans that autowire
+ * by name or type from XML are never shared, and neither are beans looking up other beans by name at runtime
+ * (which cannot be seen in the definitions), so do not use this mode for such contexts.
+ * <p/>
+ * Bean factory post processors, bean post processors and abstract definitions are kept in both contexts.
+ * A test context that defines a shared bean differently, or has bean factory post processors of its own,
+ * is loaded without the parent.
+ *
+ * @author kristoffer.teuber
+ */
+public class SharedParentContext {
+
+	// Set this system property to true to load the unmocked beans of the shared locations in a parent context
+	public static final String SHARED_PARENT_PROPERTY = "springmock.sharedParent";
+
+	private static final Logger log = LoggerFactory.getLogger(SharedParentContext.class);
+	// Parents by shared locations and mocking configuration, null if the locations could not be shared
+	private static final Map<String, SharedParentContext> parents = new HashMap<String, SharedParentContext>();
+
+	private final GenericApplicationContext context;
+	// The shared definitions as read from the shared locations, before any post processing
+	private final Map<String, BeanDefinition> sharedDefinitions;
+	// Bean factory post processors, bean post processors and abstract definitions
+	private final Set<String> retainedBeanNames;
+
+	private SharedParentContext(GenericApplicationContext context, Map<String, BeanDefinition> sharedDefinitions,
+								Set<String> retainedBeanNames) {
+		this.context = context;
+		this.sharedDefinitions = sharedDefinitions;
+		this.retainedBeanNames = retainedBeanNames;
+	}
+
+	/**
+	 * Returns the parent context of the shared locations and the mocking configuration of a registry,
+	 * building it on first use
+	 *
+	 * @return the parent, or null if shared parents are disabled or the locations cannot be shared
+	 */
+	public static SharedParentContext getIfEnabled(String[] sharedLocations, MockAliasRegistry registry,
+												   ClassLoader classLoader) {
+		if (!Boolean.getBoolean(SHARED_PARENT_PROPERTY) || sharedLocations == null || sharedLocations.length == 0) {
+			return null;
+		}
+		Set<String> mockBeanNames = new TreeSet<String>();
+		for (MockResourceIndex.Entry entry : registry.getRegisteredIndex().getEntries()) {
+			if (entry.getMockBeanName() != null && entry.getMockBeanName().length() > 0) {
+				mockBeanNames.add(entry.getMockBeanName());
+			}
+		}
+		Set<String> mockableBeanNames = new TreeSet<String>(registry.getBeanNames());
+		String key = Arrays.toString(sharedLocations) + " mockable=" + mockableBeanNames + " mocks=" + mockBeanNames;
+		synchronized (parents) {
+			if (parents.containsKey(key)) {
+				SharedParentContext parent = parents.get(key);
+				if (parent != null && !parent.context.isActive()) {
+					parents.remove(key);
+				} else {
+					return parent;
+				}
+			}
+			SharedParentContext parent;
+			try {
+				mockBeanNames.addAll(mockableBeanNames);
+				parent = build(sharedLocations, mockBeanNames, classLoader);
+			} catch (Exception e) {
+				log.warn("Could not build shared parent context, loading test contexts without it: " +
+						Arrays.toString(sharedLocations), e);
+				parent = null;
+			}
+			parents.put(key, parent);
+			return parent;
+		}
+	}
+
+	private static SharedParentContext build(String[] sharedLocations, Set<String> excludedBeanNames,
+											 ClassLoader classLoader) {
+		long start = System.currentTimeMillis();
+		DefaultListableBeanFactory source = new DefaultListableBeanFactory();
+		source.setBeanClassLoader(classLoader);
+		XmlBeanDefinitionReader reader = new XmlBeanDefinitionReader(source);
+		reader.setResourceLoader(new FileSystemResourceLoader());
+		reader.setBeanClassLoader(classLoader);
+		reader.loadBeanDefinitions(sharedLocations);
+
+		Set<String> sharedBeanNames = new BeanDependencyAnalysis(source, classLoader).findBeansNotDependingOn(excludedBeanNames);
+		Set<String> retainedBeanNames = new HashSet<String>();
+		Map<String, BeanDefinition> sharedDefinitions = new HashMap<String, BeanDefinition>();
+		GenericApplicationContext context = new GenericApplicationContext();
+		context.setClassLoader(classLoader);
+		for (String beanName : source.getBeanDefinitionNames()) {
+			BeanDefinition beanDefinition = source.getBeanDefinition(beanName);
+			boolean retained = beanDefinition.isAbstract() || isPostProcessor(beanDefinition, classLoader);
+			if (!sharedBeanNames.contains(beanName)) {
+				if (retained && !beanDefinition.isAbstract()) {
+					log.debug("Post processor " + beanName + " depends on mockable beans, not sharing " +
+							Arrays.toString(sharedLocations));
+					return null;
+				}
+				continue;
+			}
+			if (retained) {
+				retainedBeanNames.add(beanName);
+			}
+			sharedDefinitions.put(beanName, beanDefinition);
+			context.registerBeanDefinition(beanName, copy(beanDefinition));
+			for (String alias : source.getAliases(beanName)) {
+				context.registerAlias(beanName, alias);
+			}
+		}
+		AnnotationConfigUtils.registerAnnotationConfigProcessors(context);
+		context.refresh();
+		context.registerShutdownHook();
+		log.info("Built shared parent context with " + sharedDefinitions.size() + " of " +
+				source.getBeanDefinitionCount() + " beans in " + (System.currentTimeMillis() - start) + " ms: " +
+				Arrays.toString(sharedLocations));
+		return new SharedParentContext(context, sharedDefinitions, retainedBeanNames);
+	}
+
+	/**
+	 * Makes a test context a child of this parent, removing the shared beans from it
+	 *
+	 * @return false, without changing the test context, if it defines a shared bean differently or has bean
+	 *         factory post processors that are not in the parent
+	 */
+	public boolean share(GenericApplicationContext child) {
+		DefaultListableBeanFactory factory = child.getDefaultListableBeanFactory();
+		ClassLoader classLoader = factory.getBeanClassLoader();
+		List<String> removedBeanNames = new ArrayList<String>();
+		for (String beanName : factory.getBeanDefinitionNames()) {
+			BeanDefinition beanDefinition = factory.getBeanDefinition(beanName);
+			BeanDefinition sharedDefinition = this.sharedDefinitions.get(beanName);
+			if (sharedDefinition == null) {
+				if (!beanDefinition.isAbstract() && isBeanFactoryPostProcessor(beanDefinition, classLoader)) {
+					log.debug("Test context has a bean factory post processor of its own, not using shared parent: " +
+							beanName);
+					return false;
+				}
+				continue;
+			}
+			if (!sharedDefinition.equals(beanDefinition)) {
+				log.debug("Test context defines shared bean differently, not using shared parent: " + beanName);
+				return false;
+			}
+			if (!this.retainedBeanNames.contains(beanName)) {
+				removedBeanNames.add(beanName);
+			}
+		}
+		for (String beanName : removedBeanNames) {
+			factory.removeBeanDefinition(beanName);
+		}
+		child.setParent(this.context);
+		log.debug("Using shared parent context for " + removedBeanNames.size() + " beans");
+		return true;
+	}
+
+	public GenericApplicationContext getContext() {
+		return this.context;
+	}
+
+	/**
+	 * Closes all shared parents
+	 */
+	public static void clear() {
+		synchronized (parents) {
+			for (SharedParentContext parent : parents.values()) {
+				if (parent != null) {
+					parent.context.close();
+				}
+			}
+			parents.clear();
+		}
+	}
+
+	private static BeanDefinition copy(BeanDefinition beanDefinition) {
+		if (beanDefinition instanceof AbstractBeanDefinition) {
+			return ((AbstractBeanDefinition) beanDefinition).cloneBeanDefinition();
+		}
+		return beanDefinition;
+	}
+
+	private static boolean isPostProcessor(BeanDefinition beanDefinition, ClassLoader classLoader) {
+		Class<?> beanClass = BeanDependencyAnalysis.loadBeanClass(beanDefinition, classLoader);
+		return beanDefinition.getRole() == BeanDefinition.ROLE_INFRASTRUCTURE ||
+				(beanClass != null && (BeanFactoryPostProcessor.class.isAssignableFrom(beanClass) ||
+						BeanPostProcessor.class.isAssignableFrom(beanClass)));
+	}
+
+	private static boolean isBeanFactoryPostProcessor(BeanDefinition beanDefinition, ClassLoader classLoader) {
+		Class<?> beanClass = BeanDependencyAnalysis.loadBeanClass(beanDefinition, classLoader);
+		return beanClass != null && BeanFactoryPostProcessor.class.isAssignableFrom(beanClass);
+	}
+}
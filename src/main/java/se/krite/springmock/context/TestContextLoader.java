@@ -2,19 +2,27 @@ package se.krite.springmock.context;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.support.AbstractBeanDefinitionReader;
+import org.springframework.beans.factory.parsing.EmptyReaderEventListener;
+import org.springframework.beans.factory.parsing.ImportDefinition;
 import org.springframework.beans.factory.support.DefaultListableBeanFactory;
 import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
 import org.springframework.context.ApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.AnnotationConfigUtils;
 import org.springframework.context.support.GenericApplicationContext;
 import org.springframework.core.io.FileSystemResourceLoader;
+import org.springframework.core.io.Resource;
 import org.springframework.test.context.ContextLoader;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Custom context loader used to load context files using a standard format.
  * This context loader will rebuild the relative paths given to the @ContextConfiguration, to absolute paths
  * so that they can be located without any workspace specific settings.
+ * With shared parents enabled, the beans that are never mocked are loaded once in a {@link SharedParentContext}.
  *
  * @author kristoffer.teuber
  */
@@ -22,25 +30,112 @@ public class TestContextLoader implements ContextLoader {
 
 	private final Logger log = LoggerFactory.getLogger(getClass());
 
+	private Class<?> testClass;
+
 	public ApplicationContext loadContext(String... locations) throws Exception {
-		GenericApplicationContext context = new GenericApplicationContext();
+		return this.createContext(locations);
+	}
+
+	protected ConfigurableApplicationContext createContext(String... locations) throws Exception {
+		ContextLoadProfiler profiler = ContextLoadProfiler.createIfEnabled(locations);
+		GenericApplicationContext context = this.createApplicationContext();
 		this.log.debug("Building wew generic application context built...");
 		// spring 3.0.X -> AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
-		AbstractBeanDefinitionReader reader = new XmlBeanDefinitionReader(context);
-		reader.setResourceLoader(new FileSystemResourceLoader());
-		reader.loadBeanDefinitions(locations);
-		AnnotationConfigUtils.registerAnnotationConfigProcessors(context);
 		DefaultListableBeanFactory factory = context.getDefaultListableBeanFactory();
-		factory.setInstantiationStrategy(new MockingAliasingCglibSubclassingInstantiationStrategy());
-		context.addBeanFactoryPostProcessor(new MockingAliasingBeanFactoryPostProcessor());
+		MockAliasRegistry registry = new MockAliasRegistry();
+		this.registerAliases(registry);
+		long start = profiler != null ? profiler.start() : 0;
+		this.loadBeanDefinitions(context, registry, locations);
+		if (profiler != null) {
+			profiler.end(ContextLoadProfiler.CATEGORY_XML, Arrays.toString(locations), start);
+		}
+		SharedParentContext parent = SharedParentContext.getIfEnabled(this.getSharedParentLocations(locations),
+				registry, context.getClassLoader());
+		if (parent != null) {
+			parent.share(context);
+		}
+		AnnotationConfigUtils.registerAnnotationConfigProcessors(context);
+		registry.setBeanFactory(factory);
+		factory.registerSingleton(MockAliasRegistry.REGISTRY_BEAN_NAME, registry);
+		MockingAliasingCglibSubclassingInstantiationStrategy instantiationStrategy =
+				new MockingAliasingCglibSubclassingInstantiationStrategy(registry);
+		MockingAliasingBeanFactoryPostProcessor postProcessor = new MockingAliasingBeanFactoryPostProcessor(registry);
+		if (profiler != null) {
+			instantiationStrategy.setProfiler(profiler);
+			postProcessor.setProfiler(profiler);
+			factory.addBeanPostProcessor(profiler.getBeanPostProcessor());
+		}
+		factory.setInstantiationStrategy(instantiationStrategy);
+		context.addBeanFactoryPostProcessor(postProcessor);
 		MockResourceAnnotationBeanPostProcessor.setBeanFactory(context.getBeanFactory());
+		start = profiler != null ? profiler.start() : 0;
 		context.refresh();
+		registry.warmTargetSources();
+		if (profiler != null) {
+			profiler.end(ContextLoadProfiler.CATEGORY_REFRESH, context.getId(), start);
+			profiler.finish();
+		}
 		context.registerShutdownHook();
 		this.log.debug("New generic application context built: " + context.getId());
 		return context;
 	}
 
+	/**
+	 * Reads the bean definitions of the locations, or restores them from a snapshot if snapshots are enabled
+	 */
+	private void loadBeanDefinitions(GenericApplicationContext context, MockAliasRegistry registry,
+									 String... locations) {
+		BeanDefinitionSnapshot snapshot = BeanDefinitionSnapshot.createIfEnabled(locations,
+				registry.getRegisteredIndex(), context.getClassLoader());
+		if (snapshot != null && snapshot.restore(context)) {
+			return;
+		}
+		XmlBeanDefinitionReader reader = new XmlBeanDefinitionReader(context);
+		reader.setResourceLoader(new FileSystemResourceLoader());
+		final List<Resource> resources = new ArrayList<Resource>();
+		for (String location : locations) {
+			resources.add(reader.getResourceLoader().getResource(location));
+		}
+		reader.setEventListener(new EmptyReaderEventListener() {
+			@Override
+			public void importProcessed(ImportDefinition importDefinition) {
+				resources.addAll(Arrays.asList(importDefinition.getActualResources()));
+			}
+		});
+		reader.loadBeanDefinitions(locations);
+		if (snapshot != null) {
+			snapshot.save(context.getDefaultListableBeanFactory(), resources);
+		}
+	}
+
+	/**
+	 * The locations whose unmocked beans are kept in a shared parent context, if shared parents are enabled
+	 * (see {@link SharedParentContext}). Defaults to all locations.
+	 */
+	protected String[] getSharedParentLocations(String... locations) {
+		return locations;
+	}
+
+	protected GenericApplicationContext createApplicationContext() {
+		return new GenericApplicationContext();
+	}
+
+	/**
+	 * Registers the mocking configuration of the test classes in the registry of a new context
+	 */
+	protected void registerAliases(MockAliasRegistry registry) {
+		MockingClassLoader.registerAliases(registry, this.testClass);
+	}
+
 	public String[] processLocations(Class<?> clazz, String... locations) {
+		// Called for every @ContextConfiguration in the test class hierarchy, most specific class first
+		if (this.testClass == null) {
+			this.testClass = clazz;
+		}
+		return this.resolveLocations(clazz, locations);
+	}
+
+	protected String[] resolveLocations(Class<?> clazz, String... locations) {
 		int i = 0;
 		String[] finalLocations = new String[locations.length];
 		for (String location : locations)
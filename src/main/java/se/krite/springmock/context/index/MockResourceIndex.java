@@ -0,0 +1,247 @@
+package se.krite.springmock.context.index;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.URL;
+import java.util.*;
+
+/**
+ * Precomputed index of all @MockResource/@MockResources declarations found in test classes.
+ * The index is written at compile time by {@link MockResourceIndexProcessor} to META-INF, and lets
+ * the mocking framework register its aliases without loading every test class on the class path.
+ * <p/>
+ * Each line holds one declaration: bean name, mock bean name, restore flag, declaring test class and
+ * method name (empty for class level declarations), separated by tabs.
+ *
+ * @author kristoffer.teuber
+ */
+public class MockResourceIndex {
+
+	public static final String INDEX_LOCATION = "META-INF/spring-mock.index";
+
+	// Set this system property to true to ignore any index and always scan the class path
+	public static final String IGNORE_INDEX_PROPERTY = "springmock.index.ignore";
+
+	private static final Logger log = LoggerFactory.getLogger(MockResourceIndex.class);
+	private static final String SEPARATOR = "\t";
+	private static final String ENCODING = "UTF-8";
+	private static final String CLASS_FILE_SUFFIX = ".class";
+
+	private final Map<String, List<Entry>> entriesByBeanName = new LinkedHashMap<String, List<Entry>>();
+	// Urls of the class path roots the loaded indexes were found in
+	private final Set<String> indexedRoots = new LinkedHashSet<String>();
+
+	/**
+	 * Loads and merges all indexes visible to the given class loader. An index only covers the class path root
+	 * that contains it (see {@link #getIndexedRoots()}), and declarations of classes that are not found in that
+	 * root, such as deleted test classes, are dropped.
+	 *
+	 * @return the merged index, or null if no index was found or indexes are ignored
+	 */
+	public static MockResourceIndex load(ClassLoader classLoader) {
+		if (Boolean.getBoolean(IGNORE_INDEX_PROPERTY)) {
+			log.debug("Mock resource index ignored by system property: " + IGNORE_INDEX_PROPERTY);
+			return null;
+		}
+		try {
+			Enumeration<URL> urls = classLoader.getResources(INDEX_LOCATION);
+			if (!urls.hasMoreElements()) {
+				return null;
+			}
+			MockResourceIndex index = new MockResourceIndex();
+			while (urls.hasMoreElements()) {
+				URL url = urls.nextElement();
+				log.debug("Reading mock resource index: " + url);
+				String root = StringUtils.substringBeforeLast(url.toExternalForm(), INDEX_LOCATION);
+				MockResourceIndex rootIndex = new MockResourceIndex();
+				InputStream in = url.openStream();
+				try {
+					rootIndex.read(new InputStreamReader(in, ENCODING));
+				} finally {
+					in.close();
+				}
+				for (Entry entry : rootIndex.getEntries()) {
+					if (isInRoot(entry.getClassName(), root, classLoader)) {
+						index.add(entry);
+					} else {
+						log.debug("Ignoring mock resource index entry of a class not found in " + root + ": " +
+								entry.getClassName());
+					}
+				}
+				index.indexedRoots.add(root);
+			}
+			return index;
+		} catch (IOException e) {
+			log.warn("Could not read mock resource index, falling back to class path scanning", e);
+			return null;
+		}
+	}
+
+	private static boolean isInRoot(String className, String root, ClassLoader classLoader) {
+		URL classUrl = classLoader.getResource(className.replace('.', '/') + CLASS_FILE_SUFFIX);
+		return classUrl != null && classUrl.toExternalForm().startsWith(root);
+	}
+
+	public void read(Reader reader) throws IOException {
+		BufferedReader in = new BufferedReader(reader);
+		String line;
+		while ((line = in.readLine()) != null) {
+			if (line.length() == 0 || line.startsWith("#")) {
+				continue;
+			}
+			String[] fields = StringUtils.splitPreserveAllTokens(line, SEPARATOR);
+			if (fields.length != 5) {
+				throw new IOException("Malformed mock resource index line: " + line);
+			}
+			this.add(new Entry(fields[0], fields[1], Boolean.valueOf(fields[2]), fields[3],
+					fields[4].length() > 0 ? fields[4] : null));
+		}
+	}
+
+	public void write(Writer writer) throws IOException {
+		PrintWriter out = new PrintWriter(writer);
+		out.print("# Generated by " + MockResourceIndexProcessor.class.getName() + "\n");
+		for (Entry entry : this.getEntries()) {
+			out.print(entry.getBeanName() + SEPARATOR +
+					entry.getMockBeanName() + SEPARATOR +
+					entry.isRestoreToOriginal() + SEPARATOR +
+					entry.getClassName() + SEPARATOR +
+					(entry.getMethodName() != null ? entry.getMethodName() : "") + "\n");
+		}
+		out.flush();
+	}
+
+	public void add(Entry entry) {
+		List<Entry> entries = this.entriesByBeanName.get(entry.getBeanName());
+		if (entries == null) {
+			entries = new ArrayList<Entry>();
+			this.entriesByBeanName.put(entry.getBeanName(), entries);
+		}
+		if (!entries.contains(entry)) {
+			entries.add(entry);
+		}
+	}
+
+	/**
+	 * Removes all declarations made by the given classes, used when a class is recompiled
+	 */
+	public void removeClasses(Set<String> classNames) {
+		for (Iterator<List<Entry>> it = this.entriesByBeanName.values().iterator(); it.hasNext(); ) {
+			List<Entry> entries = it.next();
+			for (Iterator<Entry> entryIt = entries.iterator(); entryIt.hasNext(); ) {
+				if (classNames.contains(entryIt.next().getClassName())) {
+					entryIt.remove();
+				}
+			}
+			if (entries.isEmpty()) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return the urls (ending with a slash) of the class path roots covered by the loaded indexes, the test
+	 *         classes of other roots have to be scanned
+	 */
+	public Set<String> getIndexedRoots() {
+		return Collections.unmodifiableSet(this.indexedRoots);
+	}
+
+	public Set<String> getBeanNames() {
+		return Collections.unmodifiableSet(this.entriesByBeanName.keySet());
+	}
+
+	public List<Entry> getEntries(String beanName) {
+		List<Entry> entries = this.entriesByBeanName.get(beanName);
+		if (entries == null) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(entries);
+	}
+
+	public List<Entry> getEntries() {
+		List<Entry> entries = new ArrayList<Entry>();
+		for (List<Entry> beanEntries : this.entriesByBeanName.values()) {
+			entries.addAll(beanEntries);
+		}
+		return entries;
+	}
+
+	public boolean isEmpty() {
+		return this.entriesByBeanName.isEmpty();
+	}
+
+	/**
+	 * A single @MockResource declaration on a test class or test method
+	 */
+	public static class Entry {
+		private final String beanName;
+		private final String mockBeanName;
+		private final boolean restoreToOriginal;
+		private final String className;
+		private final String methodName;
+
+		public Entry(String beanName, String mockBeanName, boolean restoreToOriginal,
+					 String className, String methodName) {
+			this.beanName = beanName;
+			this.mockBeanName = mockBeanName;
+			this.restoreToOriginal = restoreToOriginal;
+			this.className = className;
+			this.methodName = methodName;
+		}
+
+		public String getBeanName() {
+			return beanName;
+		}
+
+		public String getMockBeanName() {
+			return mockBeanName;
+		}
+
+		public boolean isRestoreToOriginal() {
+			return restoreToOriginal;
+		}
+
+		public String getClassName() {
+			return className;
+		}
+
+		/**
+		 * @return the annotated method name, or null if declared at class level
+		 */
+		public String getMethodName() {
+			return methodName;
+		}
+
+		public boolean isClassLevel() {
+			return this.methodName == null;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Entry)) {
+				return false;
+			}
+			Entry other = (Entry) o;
+			return this.restoreToOriginal == other.restoreToOriginal &&
+					this.beanName.equals(other.beanName) &&
+					this.mockBeanName.equals(other.mockBeanName) &&
+					this.className.equals(other.className) &&
+					(this.methodName == null ? other.methodName == null : this.methodName.equals(other.methodName));
+		}
+
+		@Override
+		public int hashCode() {
+			int result = beanName.hashCode();
+			result = 31 * result + className.hashCode();
+			result = 31 * result + (methodName != null ? methodName.hashCode() : 0);
+			return result;
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package se.krite.springmock.context.index;
+
+import se.krite.springmock.context.MockResource;
+import se.krite.springmock.context.MockResources;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Annotation processor that writes the {@link MockResourceIndex} for all test classes in a compilation.
+ * It is registered as a service, so it runs automatically when test classes are compiled with this
+ * library on the class path.
+ * <p/>
+ * Only classes named *Test are indexed, the same classes MockingClassLoader would scan. Annotations
+ * are resolved the same way as the runtime scan does, including super classes and interfaces.
+ * An existing index in the output folder is merged, so incremental compilation keeps declarations
+ * from classes that were not recompiled.
+ *
+ * @author kristoffer.teuber
+ */
+@SupportedAnnotationTypes("*")
+public class MockResourceIndexProcessor extends AbstractProcessor {
+
+	private final MockResourceIndex index = new MockResourceIndex();
+	private final Set<String> processedClassNames = new HashSet<String>();
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		if (roundEnv.processingOver()) {
+			this.writeIndex();
+			return false;
+		}
+		for (TypeElement type : ElementFilter.typesIn(roundEnv.getRootElements())) {
+			this.processType(type);
+		}
+		return false;
+	}
+
+	private void processType(TypeElement type) {
+		String className = this.processingEnv.getElementUtils().getBinaryName(type).toString();
+		this.processedClassNames.add(className);
+		if (type.getKind() == ElementKind.CLASS && type.getSimpleName().toString().endsWith("Test")) {
+			this.indexTestClass(type, className);
+		}
+		for (TypeElement nested : ElementFilter.typesIn(type.getEnclosedElements())) {
+			this.processType(nested);
+		}
+	}
+
+	private void indexTestClass(TypeElement type, String className) {
+		List<MockResource> classResources = new ArrayList<MockResource>();
+		MockResource mockResource = findAnnotation(type, MockResource.class);
+		if (mockResource != null) {
+			classResources.add(mockResource);
+		}
+		MockResources mockResources = findAnnotation(type, MockResources.class);
+		if (mockResources != null) {
+			classResources.addAll(Arrays.asList(mockResources.value()));
+		}
+		for (MockResource resource : classResources) {
+			this.addEntry(resource, className, null);
+		}
+
+		for (TypeElement hierarchyType : this.getTypeHierarchy(type)) {
+			for (ExecutableElement method : ElementFilter.methodsIn(hierarchyType.getEnclosedElements())) {
+				String methodName = method.getSimpleName().toString();
+				mockResource = method.getAnnotation(MockResource.class);
+				if (mockResource != null) {
+					this.addEntry(mockResource, className, methodName);
+				}
+				mockResources = method.getAnnotation(MockResources.class);
+				if (mockResources != null) {
+					for (MockResource resource : mockResources.value()) {
+						this.addEntry(resource, className, methodName);
+					}
+				}
+			}
+		}
+	}
+
+	private void addEntry(MockResource resource, String className, String methodName) {
+		this.index.add(new MockResourceIndex.Entry(resource.beanName(), resource.mockBeanName(),
+				resource.restoreToOriginal(), className, methodName));
+	}
+
+	/**
+	 * Same lookup order as AnnotationUtils.findAnnotation: the type itself, its interfaces, then its super class
+	 */
+	private <A extends java.lang.annotation.Annotation> A findAnnotation(TypeElement type, Class<A> annotationType) {
+		A annotation = type.getAnnotation(annotationType);
+		if (annotation != null) {
+			return annotation;
+		}
+		for (TypeMirror interfaceType : type.getInterfaces()) {
+			annotation = findAnnotation(asTypeElement(interfaceType), annotationType);
+			if (annotation != null) {
+				return annotation;
+			}
+		}
+		TypeElement superType = asTypeElement(type.getSuperclass());
+		if (superType == null) {
+			return null;
+		}
+		return findAnnotation(superType, annotationType);
+	}
+
+	/**
+	 * The type, its super classes and all their interfaces. Method annotations found on overridden
+	 * interface methods are included as well, since the runtime lookup finds those too.
+	 */
+	private Collection<TypeElement> getTypeHierarchy(TypeElement type) {
+		Set<TypeElement> types = new LinkedHashSet<TypeElement>();
+		this.collectTypeHierarchy(type, types);
+		return types;
+	}
+
+	private void collectTypeHierarchy(TypeElement type, Set<TypeElement> types) {
+		if (type == null || !types.add(type)) {
+			return;
+		}
+		for (TypeMirror interfaceType : type.getInterfaces()) {
+			this.collectTypeHierarchy(asTypeElement(interfaceType), types);
+		}
+		this.collectTypeHierarchy(asTypeElement(type.getSuperclass()), types);
+	}
+
+	private static TypeElement asTypeElement(TypeMirror typeMirror) {
+		if (typeMirror == null || typeMirror.getKind() != TypeKind.DECLARED) {
+			return null;
+		}
+		Element element = ((DeclaredType) typeMirror).asElement();
+		return element instanceof TypeElement ? (TypeElement) element : null;
+	}
+
+	private void writeIndex() {
+		MockResourceIndex merged = this.readExistingIndex();
+		merged.removeClasses(this.processedClassNames);
+		for (MockResourceIndex.Entry entry : this.index.getEntries()) {
+			merged.add(entry);
+		}
+		if (merged.isEmpty()) {
+			return;
+		}
+		try {
+			FileObject file = this.processingEnv.getFiler().createResource(
+					StandardLocation.CLASS_OUTPUT, "", MockResourceIndex.INDEX_LOCATION);
+			Writer writer = file.openWriter();
+			try {
+				merged.write(writer);
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			this.processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+					"Could not write mock resource index: " + e.getMessage());
+		}
+	}
+
+	private MockResourceIndex readExistingIndex() {
+		MockResourceIndex existing = new MockResourceIndex();
+		try {
+			FileObject file = this.processingEnv.getFiler().getResource(
+					StandardLocation.CLASS_OUTPUT, "", MockResourceIndex.INDEX_LOCATION);
+			Reader reader = file.openReader(true);
+			try {
+				existing.read(reader);
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			// No previous index, nothing to merge
+		}
+		return existing;
+	}
+}
@@ -0,0 +1,283 @@
+package se.krite.springmock.context.xml;
+
+import com.thoughtworks.xstream.converters.ConversionException;
+import com.thoughtworks.xstream.converters.Converter;
+import com.thoughtworks.xstream.converters.MarshallingContext;
+import com.thoughtworks.xstream.converters.UnmarshallingContext;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+
+import java.sql.Timestamp;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * A faster replacement of {@link SqlDateConverter}, for fixtures holding many dates.
+ * Dates are written in the same yyyyMMdd-HHmmss format, followed by the fraction of a second for timestamps
+ * with nanos (yyyyMMdd-HHmmss.nnnnnnnnn). Both forms are read back, as are all formats read by
+ * SqlDateConverter. Timestamp fields are read as timestamps, including their nanos.
+ * <p/>
+ * Dates are formatted and parsed with calendars kept per thread, using the default time zone of the thread's
+ * first conversion. The format of a value is detected by its shape, so no exceptions are thrown for the
+ * formats that do not match. Values in SqlDateConverter's formats with a time zone other than GMT, UTC or an
+ * RFC 822 offset, or with an am/pm marker, are parsed with SimpleDateFormats (also kept per thread).
+ *
+ * @author kristoffer.teuber
+ */
+public class FastSqlDateConverter implements Converter {
+
+	private static final String[] LEGACY_FORMATS = {
+			"yyyy-MM-dd HH:mm:ss.S z",
+			"yyyy-MM-dd HH:mm:ss.S a",
+			"yyyy-MM-dd HH:mm:ssz", "yyyy-MM-dd HH:mm:ss z",
+			"yyyy-MM-dd HH:mm:ssa"};
+	private static final int NANOS_PER_MILLI = 1000000;
+
+	private final ThreadLocal<Calendar> localCalendar = new ThreadLocal<Calendar>() {
+		@Override
+		protected Calendar initialValue() {
+			return new GregorianCalendar();
+		}
+	};
+	private final ThreadLocal<Calendar> gmtCalendar = new ThreadLocal<Calendar>() {
+		@Override
+		protected Calendar initialValue() {
+			return new GregorianCalendar(TimeZone.getTimeZone("GMT"));
+		}
+	};
+	private final ThreadLocal<SimpleDateFormat[]> legacyFormats = new ThreadLocal<SimpleDateFormat[]>() {
+		@Override
+		protected SimpleDateFormat[] initialValue() {
+			SimpleDateFormat[] formats = new SimpleDateFormat[LEGACY_FORMATS.length];
+			for (int i = 0; i < LEGACY_FORMATS.length; i++) {
+				formats[i] = new SimpleDateFormat(LEGACY_FORMATS[i]);
+				formats[i].setLenient(false);
+			}
+			return formats;
+		}
+	};
+
+	public boolean canConvert(Class type) {
+		return type.equals(Date.class) || type.equals(Timestamp.class);
+	}
+
+	public void marshal(Object source, HierarchicalStreamWriter writer, MarshallingContext context) {
+		writer.setValue(this.toString((Date) source));
+	}
+
+	public Object unmarshal(HierarchicalStreamReader reader, UnmarshallingContext context) {
+		return this.fromString(reader.getValue(), context.getRequiredType());
+	}
+
+	/**
+	 * Formats a date as yyyyMMdd-HHmmss, followed by the nanos of timestamps that have any
+	 */
+	public String toString(Date date) {
+		Calendar calendar = this.localCalendar.get();
+		calendar.setTime(date);
+		StringBuilder value = new StringBuilder(25);
+		appendDigits(value, calendar.get(Calendar.YEAR), 4);
+		appendDigits(value, calendar.get(Calendar.MONTH) + 1, 2);
+		appendDigits(value, calendar.get(Calendar.DAY_OF_MONTH), 2);
+		value.append('-');
+		appendDigits(value, calendar.get(Calendar.HOUR_OF_DAY), 2);
+		appendDigits(value, calendar.get(Calendar.MINUTE), 2);
+		appendDigits(value, calendar.get(Calendar.SECOND), 2);
+		if (date instanceof Timestamp && ((Timestamp) date).getNanos() != 0) {
+			int nanos = ((Timestamp) date).getNanos();
+			int digits = 9;
+			while (nanos % 10 == 0) {
+				nanos /= 10;
+				digits--;
+			}
+			value.append('.');
+			appendDigits(value, nanos, digits);
+		}
+		return value.toString();
+	}
+
+	/**
+	 * Parses a date in any of the supported formats
+	 *
+	 * @param type Timestamp to get a timestamp, anything else for a date
+	 */
+	public Date fromString(String value, Class type) {
+		boolean timestamp = Timestamp.class.equals(type);
+		Date date = this.parseDefaultFormat(value, timestamp);
+		if (date == null) {
+			date = this.parseLegacyFormat(value);
+		}
+		if (date == null) {
+			date = this.parseWithLegacyFormats(value);
+		}
+		if (date == null) {
+			throw new ConversionException("Cannot parse date " + value);
+		}
+		if (timestamp && !(date instanceof Timestamp)) {
+			return new Timestamp(date.getTime());
+		}
+		return date;
+	}
+
+	/**
+	 * yyyyMMdd-HHmmss with an optional fraction of a second, in the default time zone
+	 */
+	private Date parseDefaultFormat(String value, boolean timestamp) {
+		int length = value.length();
+		if (length < 15 || value.charAt(8) != '-') {
+			return null;
+		}
+		int nanos = 0;
+		if (length > 15) {
+			if (value.charAt(15) != '.' || length == 16 || length > 25) {
+				return null;
+			}
+			nanos = parseDigits(value, 16, length);
+			if (nanos < 0) {
+				return null;
+			}
+			for (int i = length; i < 25; i++) {
+				nanos *= 10;
+			}
+		}
+		long millis = toMillis(this.localCalendar.get(), parseDigits(value, 0, 4), parseDigits(value, 4, 6),
+				parseDigits(value, 6, 8), parseDigits(value, 9, 11), parseDigits(value, 11, 13),
+				parseDigits(value, 13, 15));
+		if (millis == Long.MIN_VALUE) {
+			return null;
+		}
+		if (timestamp) {
+			Timestamp result = new Timestamp(millis);
+			result.setNanos(nanos);
+			return result;
+		}
+		return new Date(millis + nanos / NANOS_PER_MILLI);
+	}
+
+	/**
+	 * yyyy-MM-dd HH:mm:ss, optionally followed by .S (a number of milliseconds, as SimpleDateFormat reads it),
+	 * and then a GMT, UTC or +hhmm time zone, after a space or directly after the seconds.
+	 * Returns null for other zones (including GMT+hh:mm, which JDKs parse differently), which are left to the
+	 * SimpleDateFormats.
+	 */
+	private Date parseLegacyFormat(String value) {
+		int length = value.length();
+		if (length < 20 || value.charAt(4) != '-' || value.charAt(7) != '-' || value.charAt(10) != ' ' ||
+				value.charAt(13) != ':' || value.charAt(16) != ':') {
+			return null;
+		}
+		int position = 19;
+		int millis = 0;
+		if (value.charAt(position) == '.') {
+			int end = position + 1;
+			while (end < length && Character.isDigit(value.charAt(end))) {
+				end++;
+			}
+			// SimpleDateFormat is not lenient, and only accepts up to 999 milliseconds
+			if (end == position + 1 || end - position > 4 || end == length || value.charAt(end) != ' ') {
+				return null;
+			}
+			millis = parseDigits(value, position + 1, end);
+			position = end + 1;
+		} else if (value.charAt(position) == ' ') {
+			position++;
+		}
+		int offset = parseZoneOffset(value, position);
+		if (offset == Integer.MIN_VALUE) {
+			return null;
+		}
+		long time = toMillis(this.gmtCalendar.get(), parseDigits(value, 0, 4), parseDigits(value, 5, 7),
+				parseDigits(value, 8, 10), parseDigits(value, 11, 13), parseDigits(value, 14, 16),
+				parseDigits(value, 17, 19));
+		if (time == Long.MIN_VALUE) {
+			return null;
+		}
+		return new Date(time - offset + millis);
+	}
+
+	/**
+	 * Parses with the formats of SqlDateConverter, in the same order. Like SimpleDateFormat.parse(String),
+	 * a format matching the start of the value is accepted.
+	 */
+	private Date parseWithLegacyFormats(String value) {
+		ParsePosition position = new ParsePosition(0);
+		for (SimpleDateFormat format : this.legacyFormats.get()) {
+			position.setIndex(0);
+			position.setErrorIndex(-1);
+			Date date = format.parse(value, position);
+			if (date != null) {
+				return date;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the offset in milliseconds of the zone ending the value at the given position,
+	 *         or Integer.MIN_VALUE if it is not GMT, UTC or +hhmm
+	 */
+	private static int parseZoneOffset(String value, int position) {
+		int length = value.length();
+		String zone = value.substring(position);
+		if (zone.equals("GMT") || zone.equals("UTC")) {
+			return 0;
+		}
+		if (length - position != 5) {
+			return Integer.MIN_VALUE;
+		}
+		// +hhmm
+		char sign = value.charAt(position);
+		int hours = parseDigits(value, position + 1, position + 3);
+		int minutes = parseDigits(value, position + 3, length);
+		if ((sign != '+' && sign != '-') || hours < 0 || hours > 23 || minutes < 0 || minutes > 59) {
+			return Integer.MIN_VALUE;
+		}
+		int offset = (hours * 60 + minutes) * 60000;
+		return sign == '-' ? -offset : offset;
+	}
+
+	/**
+	 * @return the time of the given fields in the zone of the calendar, or Long.MIN_VALUE if a field is out of
+	 *         range (where a non lenient SimpleDateFormat would fail)
+	 */
+	private static long toMillis(Calendar calendar, int year, int month, int day, int hour, int minute, int second) {
+		if (year < 0 || month < 1 || month > 12 || day < 1 || hour < 0 || hour > 23 || minute < 0 || minute > 59 ||
+				second < 0 || second > 59) {
+			return Long.MIN_VALUE;
+		}
+		calendar.clear();
+		calendar.set(year, month - 1, 1);
+		if (day > calendar.getActualMaximum(Calendar.DAY_OF_MONTH)) {
+			return Long.MIN_VALUE;
+		}
+		calendar.set(year, month - 1, day, hour, minute, second);
+		return calendar.getTimeInMillis();
+	}
+
+	/**
+	 * @return the number in the given range of the value, or -1 if it holds anything but digits
+	 */
+	private static int parseDigits(String value, int start, int end) {
+		int number = 0;
+		for (int i = start; i < end; i++) {
+			char c = value.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			number = number * 10 + (c - '0');
+		}
+		return number;
+	}
+
+	private static void appendDigits(StringBuilder value, int number, int digits) {
+		int start = value.length();
+		value.append(number);
+		while (value.length() - start < digits) {
+			value.insert(start, '0');
+		}
+	}
+}
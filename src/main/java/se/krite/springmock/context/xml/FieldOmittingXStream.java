@@ -2,22 +2,25 @@ package se.krite.springmock.context.xml;
 
 import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.alias.ClassMapper;
+import com.thoughtworks.xstream.annotations.XStreamOmitField;
 import com.thoughtworks.xstream.converters.ConverterLookup;
 import com.thoughtworks.xstream.converters.ConverterRegistry;
 import com.thoughtworks.xstream.converters.reflection.ReflectionProvider;
 import com.thoughtworks.xstream.io.HierarchicalStreamDriver;
 import com.thoughtworks.xstream.mapper.Mapper;
 import com.thoughtworks.xstream.mapper.MapperWrapper;
-import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * An overridden XStream implementation that omits all fields
- * that are not mapped by an XStream-annotation
+ * that are not mapped by an XStream-annotation.
+ * Which fields are mapped is resolved once per class and field, and cached by the XStream instance.
  *
  * @author kristoffer.teuber
  */
@@ -75,24 +78,58 @@ public class FieldOmittingXStream extends XStream {
 
 	@Override
 	protected MapperWrapper wrapMapper(MapperWrapper next) {
-		return new MapperWrapper(next) {
-			@Override
-			public boolean shouldSerializeMember(Class definedIn, String fieldName) {
-				try {
-					Field field = definedIn.getDeclaredField(fieldName);
-					for (Annotation annotation : field.getDeclaredAnnotations()) {
-						String name = annotation.toString();
-						name = StringUtils.substringBefore(name, "(");
-						name = StringUtils.substringAfterLast(name, ".");
-						if (name.startsWith("XStream") && !name.equals("XStreamOmitField")) {
-							return true;
-						}
-					}
-				} catch (Exception e) {
-					e.printStackTrace();
+		return new AnnotatedFieldMapper(next);
+	}
+
+	/**
+	 * Only serializes fields with an XStream annotation (other than XStreamOmitField). The decision is made
+	 * once per class and field.
+	 */
+	private static class AnnotatedFieldMapper extends MapperWrapper {
+		private static final Logger log = LoggerFactory.getLogger(AnnotatedFieldMapper.class);
+		private static final String ANNOTATION_NAME_PREFIX = "XStream";
+
+		private final ConcurrentMap<Class, ConcurrentMap<String, Boolean>> decisions =
+				new ConcurrentHashMap<Class, ConcurrentMap<String, Boolean>>();
+
+		private AnnotatedFieldMapper(Mapper wrapped) {
+			super(wrapped);
+		}
+
+		@Override
+		public boolean shouldSerializeMember(Class definedIn, String fieldName) {
+			ConcurrentMap<String, Boolean> classDecisions = this.decisions.get(definedIn);
+			if (classDecisions == null) {
+				ConcurrentMap<String, Boolean> newDecisions = new ConcurrentHashMap<String, Boolean>();
+				classDecisions = this.decisions.putIfAbsent(definedIn, newDecisions);
+				if (classDecisions == null) {
+					classDecisions = newDecisions;
 				}
+			}
+			Boolean decision = classDecisions.get(fieldName);
+			if (decision == null) {
+				decision = isAnnotated(definedIn, fieldName);
+				classDecisions.put(fieldName, decision);
+			}
+			return decision;
+		}
+
+		private static boolean isAnnotated(Class definedIn, String fieldName) {
+			Field field;
+			try {
+				field = definedIn.getDeclaredField(fieldName);
+			} catch (NoSuchFieldException e) {
+				log.debug("Not serializing member that is not declared by " + definedIn.getName() + ": " + fieldName);
 				return false;
 			}
-		};
+			for (Annotation annotation : field.getDeclaredAnnotations()) {
+				Class<? extends Annotation> annotationType = annotation.annotationType();
+				if (annotationType != XStreamOmitField.class &&
+						annotationType.getSimpleName().startsWith(ANNOTATION_NAME_PREFIX)) {
+					return true;
+				}
+			}
+			return false;
+		}
 	}
 }
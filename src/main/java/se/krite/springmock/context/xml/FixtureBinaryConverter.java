@@ -0,0 +1,139 @@
+package se.krite.springmock.context.xml;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+
+/**
+ * Converts the xml fixtures of a directory (and its subdirectories) to the binary format of
+ * {@link XStreamHelper#marshalToBinary(Object, OutputStream)}, to be run at build time. The xml stays the
+ * source of the fixtures, every file named x.xml gets a binary copy named x.bin, in the same relative
+ * directory of the target directory. Files are only converted again when their xml is newer than the binary copy,
+ * or the binary copy was written in another format or with other fixture classes (see {@link FixtureClassStamp}).
+ * <p/>
+ * Usage: FixtureBinaryConverter &lt;fixture directory&gt; [&lt;target directory&gt;], the target directory defaults
+ * to the fixture directory. For example, with the exec-maven-plugin in the process-test-resources phase:
+ * <pre>
+ * &lt;mainClass&gt;se.krite.springmock.context.xml.FixtureBinaryConverter&lt;/mainClass&gt;
+ * &lt;classpathScope&gt;test&lt;/classpathScope&gt;
+ * &lt;arguments&gt;
+ *     &lt;argument&gt;src/test/fixtures&lt;/argument&gt;
+ *     &lt;argument&gt;target/test-classes/fixtures&lt;/argument&gt;
+ * &lt;/arguments&gt;
+ * </pre>
+ * The fixture classes have to be on the classpath. Any xml file that cannot be read as a fixture fails the
+ * conversion, after the other files have been converted.
+ *
+ * @author kristoffer.teuber
+ */
+public class FixtureBinaryConverter {
+
+	public static final String XML_SUFFIX = ".xml";
+	public static final String BINARY_SUFFIX = ".bin";
+
+	private static final Logger log = LoggerFactory.getLogger(FixtureBinaryConverter.class);
+
+	private final XStreamHelper helper;
+	private int converted;
+	private int failed;
+
+	public FixtureBinaryConverter(XStreamHelper helper) {
+		this.helper = helper;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("Usage: FixtureBinaryConverter <fixture directory> [<target directory>]");
+			System.exit(2);
+		}
+		File sourceDirectory = new File(args[0]);
+		File targetDirectory = new File(args.length > 1 ? args[1] : args[0]);
+		if (!sourceDirectory.isDirectory()) {
+			throw new FileNotFoundException("Not a directory: " + sourceDirectory.getAbsolutePath());
+		}
+		FixtureBinaryConverter converter = new FixtureBinaryConverter(XStreamHelper.getInstance());
+		converter.convertDirectory(sourceDirectory, targetDirectory);
+		System.out.println("Converted " + converter.converted + " fixtures to " + targetDirectory.getAbsolutePath());
+		if (converter.failed > 0) {
+			System.err.println("Could not convert " + converter.failed + " fixtures");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Converts the out of date fixtures of a directory and its subdirectories
+	 */
+	public void convertDirectory(File sourceDirectory, File targetDirectory) throws IOException {
+		File[] files = sourceDirectory.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			if (file.isDirectory()) {
+				this.convertDirectory(file, new File(targetDirectory, file.getName()));
+			} else if (file.getName().endsWith(XML_SUFFIX)) {
+				String name = file.getName();
+				File target = new File(targetDirectory, name.substring(0, name.length() - XML_SUFFIX.length()) +
+						BINARY_SUFFIX);
+				if (target.isFile() && target.lastModified() >= file.lastModified() && this.isCurrent(target)) {
+					continue;
+				}
+				try {
+					this.convert(file, target);
+					this.converted++;
+				} catch (Exception e) {
+					this.failed++;
+					log.error("Could not convert fixture " + file, e);
+				}
+			}
+		}
+	}
+
+	private boolean isCurrent(File binaryFile) {
+		try {
+			InputStream in = new BufferedInputStream(new FileInputStream(binaryFile));
+			try {
+				return this.helper.isCurrentBinary(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			log.debug("Could not read binary fixture " + binaryFile + ", converting it again", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Converts one xml fixture. The binary file is written to a temporary file first, and is left untouched
+	 * if the xml cannot be read.
+	 */
+	public void convert(File xmlFile, File binaryFile) throws IOException {
+		File dir = binaryFile.getAbsoluteFile().getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Could not create directory " + dir);
+		}
+		File tempFile = File.createTempFile(binaryFile.getName(), ".tmp", dir);
+		try {
+			InputStream in = new BufferedInputStream(new FileInputStream(xmlFile));
+			try {
+				OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile));
+				try {
+					this.helper.convertXmlToBinary(in, out);
+				} finally {
+					out.close();
+				}
+			} finally {
+				in.close();
+			}
+			if (!tempFile.renameTo(binaryFile)) {
+				binaryFile.delete();
+				if (!tempFile.renameTo(binaryFile)) {
+					throw new IOException("Could not move binary fixture to " + binaryFile);
+				}
+			}
+		} finally {
+			tempFile.delete();
+		}
+	}
+}
@@ -0,0 +1,175 @@
+package se.krite.springmock.context.xml;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * A stamp of the classes of a fixture, stored with binary fixtures. The binary format holds the element names of
+ * the mapping of the classes when the fixture was converted, so a binary fixture is out of date when a field of
+ * one of its classes is added, renamed or retyped, or an (XStream) annotation of the class or its fields changes.
+ * <p/>
+ * The classes of a fixture are the classes of all objects reachable from it, other than JDK classes (java.*,
+ * javax.*, sun.*), whose objects are not looked into apart from the elements of collections, maps and arrays.
+ * The stamp is a hash of the declared fields and annotations of these classes and their superclasses.
+ *
+ * @author kristoffer.teuber
+ */
+public class FixtureClassStamp {
+
+	private static final String[] JDK_PACKAGES = {"java.", "javax.", "sun.", "com.sun."};
+
+	private FixtureClassStamp() {
+	}
+
+	/**
+	 * @return the names of the classes of all objects reachable from the given object, other than JDK classes
+	 */
+	public static SortedSet<String> collectClassNames(Object object) {
+		SortedSet<String> classNames = new TreeSet<String>();
+		Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+		LinkedList<Object> pending = new LinkedList<Object>();
+		pending.add(object);
+		while (!pending.isEmpty()) {
+			Object current = pending.removeFirst();
+			if (current == null || !visited.add(current)) {
+				continue;
+			}
+			Class<?> type = current.getClass();
+			if (type.isArray()) {
+				if (!type.getComponentType().isPrimitive()) {
+					for (int i = 0; i < Array.getLength(current); i++) {
+						pending.add(Array.get(current, i));
+					}
+				}
+			} else if (current instanceof Collection) {
+				pending.addAll((Collection<?>) current);
+			} else if (current instanceof Map) {
+				for (Map.Entry<?, ?> entry : ((Map<?, ?>) current).entrySet()) {
+					pending.add(entry.getKey());
+					pending.add(entry.getValue());
+				}
+			} else if (!isJdkClass(type)) {
+				classNames.add(type.getName());
+				for (Class<?> c = type; c != null && !isJdkClass(c); c = c.getSuperclass()) {
+					for (Field field : c.getDeclaredFields()) {
+						if (!Modifier.isStatic(field.getModifiers()) && !field.getType().isPrimitive()) {
+							field.setAccessible(true);
+							try {
+								pending.add(field.get(current));
+							} catch (IllegalAccessException e) {
+								throw new IllegalStateException(e);
+							}
+						}
+					}
+				}
+			}
+		}
+		return classNames;
+	}
+
+	/**
+	 * @return the stamp of the named classes as they are now
+	 * @throws ClassNotFoundException if one of the classes does not exist any more
+	 */
+	public static String stamp(Collection<String> classNames, ClassLoader classLoader) throws ClassNotFoundException {
+		StringBuilder description = new StringBuilder();
+		for (String className : new TreeSet<String>(classNames)) {
+			for (Class<?> c = Class.forName(className, false, classLoader); c != null && !isJdkClass(c);
+				 c = c.getSuperclass()) {
+				description.append(c.getName());
+				appendAnnotations(description, c.getDeclaredAnnotations());
+				description.append('{');
+				SortedMap<String, Field> fields = new TreeMap<String, Field>();
+				for (Field field : c.getDeclaredFields()) {
+					if (!Modifier.isStatic(field.getModifiers())) {
+						fields.put(field.getName(), field);
+					}
+				}
+				for (Field field : fields.values()) {
+					description.append(field.getName()).append(':').append(field.getGenericType());
+					if (Modifier.isTransient(field.getModifiers())) {
+						description.append(" transient");
+					}
+					appendAnnotations(description, field.getDeclaredAnnotations());
+					description.append(';');
+				}
+				description.append('}');
+			}
+		}
+		return toHex(digest(description.toString()));
+	}
+
+	/**
+	 * Appends the annotations with their values, in an order and format that does not depend on the JVM
+	 */
+	private static void appendAnnotations(StringBuilder description, Annotation[] annotations) {
+		SortedMap<String, Annotation> sorted = new TreeMap<String, Annotation>();
+		for (Annotation annotation : annotations) {
+			sorted.put(annotation.annotationType().getName(), annotation);
+		}
+		for (Annotation annotation : sorted.values()) {
+			description.append('@').append(annotation.annotationType().getName()).append('(');
+			SortedMap<String, Method> members = new TreeMap<String, Method>();
+			for (Method member : annotation.annotationType().getDeclaredMethods()) {
+				members.put(member.getName(), member);
+			}
+			for (Method member : members.values()) {
+				try {
+					member.setAccessible(true);
+					Object value = member.invoke(annotation);
+					description.append(member.getName()).append('=').append(valueToString(value)).append(',');
+				} catch (Exception e) {
+					throw new IllegalStateException("Could not read annotation " + annotation, e);
+				}
+			}
+			description.append(')');
+		}
+	}
+
+	private static String valueToString(Object value) {
+		if (value instanceof Class) {
+			return ((Class<?>) value).getName();
+		} else if (value != null && value.getClass().isArray()) {
+			StringBuilder values = new StringBuilder("[");
+			for (int i = 0; i < Array.getLength(value); i++) {
+				values.append(valueToString(Array.get(value, i))).append(',');
+			}
+			return values.append(']').toString();
+		}
+		return String.valueOf(value);
+	}
+
+	private static boolean isJdkClass(Class<?> type) {
+		for (String jdkPackage : JDK_PACKAGES) {
+			if (type.getName().startsWith(jdkPackage)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static byte[] digest(String value) {
+		try {
+			return MessageDigest.getInstance("SHA-1").digest(value.getBytes("UTF-8"));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+}
@@ -6,6 +6,8 @@ import com.thoughtworks.xstream.io.StreamException;
 import com.thoughtworks.xstream.io.xml.AbstractXmlDriver;
 import com.thoughtworks.xstream.io.xml.DomReader;
 import com.thoughtworks.xstream.io.xml.PrettyPrintWriter;
+import com.thoughtworks.xstream.io.xml.QNameMap;
+import com.thoughtworks.xstream.io.xml.StaxReader;
 import com.thoughtworks.xstream.io.xml.XmlFriendlyReplacer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,10 +19,16 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.FactoryConfigurationError;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.*;
 
 /**
  * Extends PrettyPrintWriter to support correct newlines
+ * <p/>
+ * Documents are read into a DOM by default. In streaming reader mode they are read with StAX instead, without
+ * holding the document in memory. Both modes unescape names with the same replacer, so they read identically.
  *
  * @author kristoffer.teuber
  */
@@ -28,10 +36,15 @@ public class NewlineDomDriver extends AbstractXmlDriver {
 
 	private final Logger log = LoggerFactory.getLogger(getClass());
 
+	// Names are written with '$' and '_' both as '_', and read with the replacer of the driver
+	private static final XmlFriendlyReplacer writerReplacer = new XmlFriendlyReplacer("_", "_");
+
 	private final String encoding;
 	private final DocumentBuilderFactory documentBuilderFactory;
 	private String newLine = null;
 	private boolean addXmlHeader;
+	private boolean streamingReader;
+	private XMLInputFactory inputFactory;
 
 	/**
 	 * Construct a DomDriver.
@@ -58,6 +71,14 @@ public class NewlineDomDriver extends AbstractXmlDriver {
 		this.addXmlHeader = addXmlHeader;
 	}
 
+	/**
+	 * @param streamingReader true to read documents with StAX instead of into a DOM
+	 */
+	public NewlineDomDriver(String encoding, String newLine, boolean addXmlHeader, boolean streamingReader) {
+		this(encoding, newLine, addXmlHeader);
+		this.streamingReader = streamingReader;
+	}
+
 	/**
 	 * @since 1.2
 	 */
@@ -68,13 +89,58 @@ public class NewlineDomDriver extends AbstractXmlDriver {
 	}
 
 	public HierarchicalStreamReader createReader(Reader xml) {
+		if (this.streamingReader) {
+			try {
+				XMLInputFactory factory = this.getInputFactory();
+				synchronized (factory) {
+					return createStaxReader(factory.createXMLStreamReader(xml));
+				}
+			} catch (XMLStreamException e) {
+				throw new StreamException(e);
+			}
+		}
 		return createReader(new InputSource(xml));
 	}
 
 	public HierarchicalStreamReader createReader(InputStream xml) {
+		if (this.streamingReader) {
+			try {
+				XMLInputFactory factory = this.getInputFactory();
+				synchronized (factory) {
+					return createStaxReader(encoding != null
+							? factory.createXMLStreamReader(xml, encoding)
+							: factory.createXMLStreamReader(xml));
+				}
+			} catch (XMLStreamException e) {
+				throw new StreamException(e);
+			}
+		}
 		return createReader(new InputSource(xml));
 	}
 
+	private HierarchicalStreamReader createStaxReader(XMLStreamReader reader) {
+		return new StaxReader(new QNameMap(), reader, xmlFriendlyReplacer());
+	}
+
+	/**
+	 * Factories are expensive to create, and are not guaranteed to be thread safe, so the factory is shared and
+	 * readers are created while holding its lock. Like PlaceholderContextReader, fixtures may not declare a DTD
+	 * or pull in external entities.
+	 */
+	private synchronized XMLInputFactory getInputFactory() {
+		if (this.inputFactory == null) {
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+			factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+			this.inputFactory = factory;
+		}
+		return this.inputFactory;
+	}
+
+	public boolean isStreamingReader() {
+		return this.streamingReader;
+	}
+
 	private HierarchicalStreamReader createReader(InputSource source) {
 		try {
 			DocumentBuilder documentBuilder = documentBuilderFactory.newDocumentBuilder();
@@ -104,8 +170,7 @@ public class NewlineDomDriver extends AbstractXmlDriver {
 			}
 		}
 		char[] indenter = new char[]{' ', ' '};
-		XmlFriendlyReplacer replacer = new XmlFriendlyReplacer("_", "_");
-		return new PrettyPrintWriter(out, indenter, this.newLine, replacer);
+		return new PrettyPrintWriter(out, indenter, this.newLine, writerReplacer);
 		//return new PrettyPrintWriter(out, PrettyPrintWriter.XML_1_1, indenter, xmlFriendlyReplacer());
 	}
 
@@ -0,0 +1,136 @@
+package se.krite.springmock.context.xml;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming reader for the context files read by ContextXmlPropertyLookup, a Context element holding
+ * Parameter elements with name and value attributes:
+ * <pre>
+ * &lt;Context&gt;
+ *     &lt;Parameter name="run_tests_on_server" value="false"/&gt;
+ * &lt;/Context&gt;
+ * </pre>
+ * Anything else (other elements, parameters with content, DTDs, XStream class or reference attributes) is not
+ * read, and the caller falls back to XStream for those documents.
+ *
+ * @author kristoffer.teuber
+ */
+public class PlaceholderContextReader {
+
+	private static final String CONTEXT_ELEMENT = "Context";
+	private static final String PARAMETER_ELEMENT = "Parameter";
+	private static final String NAME_ATTRIBUTE = "name";
+	private static final String VALUE_ATTRIBUTE = "value";
+
+	private static final XMLInputFactory inputFactory = createInputFactory();
+
+	private PlaceholderContextReader() {
+	}
+
+	/**
+	 * @return the context, or null if the document is not a plain context file and has to be read by XStream
+	 */
+	public static PlaceholderContext read(InputStream in) throws XMLStreamException {
+		XMLStreamReader reader;
+		// Factories are not guaranteed to be thread safe, the readers are only used by one thread
+		synchronized (inputFactory) {
+			reader = inputFactory.createXMLStreamReader(in);
+		}
+		try {
+			return read(reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static PlaceholderContext read(XMLStreamReader reader) throws XMLStreamException {
+		List<PlaceholderParameter> parameters = null;
+		int depth = 0;
+		while (reader.hasNext()) {
+			switch (reader.next()) {
+				case XMLStreamConstants.START_ELEMENT:
+					depth++;
+					if (depth == 1 && CONTEXT_ELEMENT.equals(reader.getLocalName()) &&
+							reader.getAttributeCount() == 0) {
+						parameters = new ArrayList<PlaceholderParameter>();
+					} else if (depth == 2 && PARAMETER_ELEMENT.equals(reader.getLocalName())) {
+						PlaceholderParameter parameter = readParameter(reader);
+						if (parameter == null) {
+							return null;
+						}
+						parameters.add(parameter);
+						depth--;
+					} else {
+						return null;
+					}
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					depth--;
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.SPACE:
+					if (!reader.isWhiteSpace()) {
+						return null;
+					}
+					break;
+				case XMLStreamConstants.COMMENT:
+				case XMLStreamConstants.PROCESSING_INSTRUCTION:
+				case XMLStreamConstants.END_DOCUMENT:
+					break;
+				default:
+					return null;
+			}
+		}
+		if (parameters == null) {
+			return null;
+		}
+		PlaceholderContext context = new PlaceholderContext();
+		// XStream leaves the implicit collection unset when there are no parameters
+		context.setParameters(parameters.isEmpty() ? null : parameters);
+		return context;
+	}
+
+	/**
+	 * Reads the attributes of a Parameter element, and moves to its end
+	 *
+	 * @return the parameter, or null if the element holds anything but the name and value attributes
+	 */
+	private static PlaceholderParameter readParameter(XMLStreamReader reader) throws XMLStreamException {
+		PlaceholderParameter parameter = new PlaceholderParameter();
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			String attributeName = reader.getAttributeLocalName(i);
+			if (NAME_ATTRIBUTE.equals(attributeName)) {
+				parameter.setName(reader.getAttributeValue(i));
+			} else if (VALUE_ATTRIBUTE.equals(attributeName)) {
+				parameter.setValue(reader.getAttributeValue(i));
+			} else {
+				return null;
+			}
+		}
+		while (true) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.END_ELEMENT) {
+				return parameter;
+			} else if ((event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.SPACE) &&
+					reader.isWhiteSpace()) {
+				continue;
+			} else if (event != XMLStreamConstants.COMMENT) {
+				return null;
+			}
+		}
+	}
+
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		return factory;
+	}
+}
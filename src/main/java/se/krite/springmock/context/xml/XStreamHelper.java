@@ -1,10 +1,18 @@
 package se.krite.springmock.context.xml;
 
 import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.io.StreamException;
+import com.thoughtworks.xstream.io.binary.BinaryStreamReader;
+import com.thoughtworks.xstream.io.binary.BinaryStreamWriter;
 import com.thoughtworks.xstream.io.xml.JDomDriver;
 import com.thoughtworks.xstream.io.xml.XmlFriendlyReplacer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.io.InputStream;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
 
 /**
  * (currently) Static utility class for registering and converting classes to and from xml
@@ -17,11 +25,18 @@ public class XStreamHelper {
 			new Class[]{};
 
 
+	private static final Logger log = LoggerFactory.getLogger(XStreamHelper.class);
+	// Leading bytes of binary fixtures. Change the version when the configuration of the serializers changes.
+	private static final int BINARY_MAGIC = 0x534d4258;
+	private static final int BINARY_VERSION = 2;
+
 	private static XStreamHelper instance;
 	private static final XmlFriendlyReplacer replacer = new XmlFriendlyReplacer("_", "_");
 	private final XStream xstreamJDom;
 	private final XStream xstreamText;
 	private final XStream xstreamTextWithISOHeader;
+	// Reads the documents of object streams without holding them in memory
+	private final NewlineDomDriver streamingDriver = new NewlineDomDriver("UTF-8", "\r\n", false, true);
 
 	private XStreamHelper() {
 		// JDom-serializer
@@ -54,10 +69,32 @@ public class XStreamHelper {
 		return this.xstreamText.toXML(object);
 	}
 
+	/**
+	 * Writes an object as UTF-8 xml to a stream, without building the whole document as a String
+	 */
+	public void marshalToXml(Object object, OutputStream out) {
+		this.xstreamText.toXML(object, out);
+	}
+
+	public void marshalToXml(Object object, Writer out) {
+		this.xstreamText.toXML(object, out);
+	}
+
 	public String marshalToXmlWithISOHeader(Object object) {
 		return this.xstreamTextWithISOHeader.toXML(object);
 	}
 
+	/**
+	 * Writes an object as ISO-8859-1 xml, with an xml header, to a stream
+	 */
+	public void marshalToXmlWithISOHeader(Object object, OutputStream out) {
+		this.xstreamTextWithISOHeader.toXML(object, out);
+	}
+
+	public void marshalToXmlWithISOHeader(Object object, Writer out) {
+		this.xstreamTextWithISOHeader.toXML(object, out);
+	}
+
 	public <K> K unmarshalXml(InputStream xml, Class<K> c) {
 		try {
 			return (K) xstreamText.fromXML(xml);
@@ -65,4 +102,127 @@ public class XStreamHelper {
 			return null;
 		}
 	}
+
+	public <K> K unmarshalXml(Reader xml, Class<K> c) {
+		try {
+			return (K) xstreamText.fromXML(xml);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Creates a stream writing objects one at a time as UTF-8 xml, as children of a root element, so that
+	 * large collections of records can be exported without holding them all in memory. The root element is
+	 * ended when the returned stream is closed, which also closes the given stream.
+	 */
+	public ObjectOutputStream createObjectOutputStream(OutputStream out, String rootNodeName) throws IOException {
+		return this.xstreamText.createObjectOutputStream(out, rootNodeName);
+	}
+
+	public ObjectOutputStream createObjectOutputStream(Writer out, String rootNodeName) throws IOException {
+		return this.xstreamText.createObjectOutputStream(out, rootNodeName);
+	}
+
+	/**
+	 * As {@link #createObjectOutputStream(OutputStream, String)}, writing ISO-8859-1 xml with an xml header
+	 */
+	public ObjectOutputStream createObjectOutputStreamWithISOHeader(OutputStream out, String rootNodeName)
+			throws IOException {
+		return this.xstreamTextWithISOHeader.createObjectOutputStream(out, rootNodeName);
+	}
+
+	/**
+	 * Creates a stream reading the objects written by {@link #createObjectOutputStream} one at a time, with a
+	 * streaming reader. readObject throws EOFException after the last object.
+	 */
+	public ObjectInputStream createObjectInputStream(InputStream xml) throws IOException {
+		return this.xstreamText.createObjectInputStream(this.streamingDriver.createReader(xml));
+	}
+
+	public ObjectInputStream createObjectInputStream(Reader xml) throws IOException {
+		return this.xstreamText.createObjectInputStream(this.streamingDriver.createReader(xml));
+	}
+
+	/**
+	 * Writes an object in XStream's binary format, a compact token stream of the same elements and values as
+	 * the xml of {@link #marshalToXml(Object)} (with the same omitted fields), that is read several times faster.
+	 * The classes of the object are stamped (see {@link FixtureClassStamp}), so that the binary is not read
+	 * after they have changed. The stream is flushed but not closed.
+	 */
+	public void marshalToBinary(Object object, OutputStream out) throws IOException {
+		SortedSet<String> classNames = FixtureClassStamp.collectClassNames(object);
+		String stamp;
+		try {
+			stamp = FixtureClassStamp.stamp(classNames, this.xstreamText.getClassLoader());
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException("Class of the object cannot be loaded by XStream", e);
+		}
+		DataOutputStream dataOut = new DataOutputStream(out);
+		dataOut.writeInt(BINARY_MAGIC);
+		dataOut.writeInt(BINARY_VERSION);
+		dataOut.writeInt(classNames.size());
+		for (String className : classNames) {
+			dataOut.writeUTF(className);
+		}
+		dataOut.writeUTF(stamp);
+		BinaryStreamWriter writer = new BinaryStreamWriter(dataOut);
+		this.xstreamText.marshal(object, writer);
+		writer.flush();
+	}
+
+	/**
+	 * Reads an object written by {@link #marshalToBinary(Object, OutputStream)}
+	 *
+	 * @return the object, or null if it cannot be read, or was written in another format or with other classes
+	 */
+	public <K> K unmarshalBinary(InputStream binary, Class<K> c) {
+		try {
+			DataInputStream in = new DataInputStream(binary);
+			if (!this.readBinaryHeader(in)) {
+				log.warn("Binary fixture was written in another format or with other classes, convert it again");
+				return null;
+			}
+			return (K) this.xstreamText.unmarshal(new BinaryStreamReader(in));
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if a binary fixture was written in the current format, with the classes as they are now
+	 */
+	public boolean isCurrentBinary(InputStream binary) throws IOException {
+		try {
+			return this.readBinaryHeader(new DataInputStream(binary));
+		} catch (EOFException e) {
+			return false;
+		}
+	}
+
+	private boolean readBinaryHeader(DataInputStream in) throws IOException {
+		if (in.readInt() != BINARY_MAGIC || in.readInt() != BINARY_VERSION) {
+			return false;
+		}
+		List<String> classNames = new ArrayList<String>();
+		for (int i = in.readInt(); i > 0; i--) {
+			classNames.add(in.readUTF());
+		}
+		String stamp = in.readUTF();
+		try {
+			return stamp.equals(FixtureClassStamp.stamp(classNames, this.xstreamText.getClassLoader()));
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Converts an xml fixture to the binary format, see {@link FixtureBinaryConverter}. The xml is read as by
+	 * {@link #unmarshalXml(InputStream, Class)}.
+	 *
+	 * @throws StreamException if the xml cannot be read
+	 */
+	public void convertXmlToBinary(InputStream xml, OutputStream binary) throws IOException {
+		this.marshalToBinary(this.xstreamText.fromXML(xml), binary);
+	}
 }